@@ -0,0 +1,156 @@
+package com.novibe.common;
+
+import com.novibe.common.util.Log;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Additive increase, multiplicative decrease of requests in flight.
+ * The limit grows by one per limit of successful requests while it is fully used, is halved on 429 or 5xx,
+ * and lowered by a tenth when the average latency of a kind of requests exceeds twice the baseline of that kind:
+ * the lowest latency seen, slowly forgotten. Kinds are kept apart, so uploads of many items are not measured
+ * against the latency of small reads.
+ * Only requests sent after the last decrease can decrease it again, so one burst of errors halves it once.
+ * A Retry-After pauses all requests to the host until it passes.
+ */
+public class AimdLimiter implements ConcurrencyLimiter {
+
+    private static final double BACKOFF = 0.5;
+    private static final double LATENCY_BACKOFF = 0.9;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final int BASELINE_DRIFT = 256;
+    private static final double LATENCY_SMOOTHING = 0.05;
+
+    private enum Outcome {SUCCESS, OVERLOAD, IGNORE}
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private long pausedUntil;
+    private long lastDecrease;
+    private final Map<String, Latency> latencies = new HashMap<>();
+
+    /**
+     * Latency of one kind of requests
+     */
+    private static final class Latency {
+
+        private long baselineNanos;
+        private double averageNanos;
+
+        private Latency(long latency) {
+            this.baselineNanos = latency;
+            this.averageNanos = latency;
+        }
+    }
+
+    public AimdLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.pausedUntil = System.nanoTime();
+        this.lastDecrease = pausedUntil;
+    }
+
+    @Override
+    public Permit acquire(String kind) throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long pause = pausedUntil - System.nanoTime();
+                if (pause > 0) {
+                    changed.awaitNanos(pause);
+                } else if (inFlight >= (int) limit) {
+                    changed.await();
+                } else {
+                    break;
+                }
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        return new AimdPermit(kind, System.nanoTime());
+    }
+
+    private void complete(String kind, long startedAt, Outcome outcome, Duration retryAfter) {
+        lock.lock();
+        try {
+            boolean saturated = inFlight >= (int) limit;
+            inFlight--;
+            long now = System.nanoTime();
+            boolean sentAfterDecrease = startedAt - lastDecrease > 0;
+            switch (outcome) {
+                case SUCCESS -> {
+                    long latency = now - startedAt;
+                    Latency seen = latencies.computeIfAbsent(kind, key -> new Latency(latency));
+                    seen.baselineNanos = Math.min(latency, seen.baselineNanos + seen.baselineNanos / BASELINE_DRIFT);
+                    seen.averageNanos += (latency - seen.averageNanos) * LATENCY_SMOOTHING;
+                    if (seen.averageNanos > LATENCY_TOLERANCE * seen.baselineNanos && sentAfterDecrease) {
+                        decrease(LATENCY_BACKOFF, now, "average latency of %s grew to %s ms".formatted(kind, (long) seen.averageNanos / 1_000_000));
+                    } else if (saturated) {
+                        limit = Math.min(maxLimit, limit + 1 / limit);
+                    }
+                }
+                case OVERLOAD -> {
+                    if (sentAfterDecrease) {
+                        decrease(BACKOFF, now, "host is overloaded");
+                    }
+                    if (retryAfter != null && now + retryAfter.toNanos() - pausedUntil > 0) {
+                        pausedUntil = now + retryAfter.toNanos();
+                        Log.common("%s asked to retry after %s s, requests are paused".formatted(name, retryAfter.toSeconds()));
+                    }
+                }
+                case IGNORE -> {
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease(double factor, long now, String reason) {
+        limit = Math.max(minLimit, limit * factor);
+        lastDecrease = now;
+        Log.debug(() -> "%s concurrency limit lowered to %s: %s".formatted(name, (int) limit, reason));
+    }
+
+    private final class AimdPermit implements Permit {
+
+        private final String kind;
+        private final long startedAt;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private AimdPermit(String kind, long startedAt) {
+            this.kind = kind;
+            this.startedAt = startedAt;
+        }
+
+        @Override
+        public void success() {
+            if (completed.compareAndSet(false, true)) complete(kind, startedAt, Outcome.SUCCESS, null);
+        }
+
+        @Override
+        public void overload(Duration retryAfter) {
+            if (completed.compareAndSet(false, true)) complete(kind, startedAt, Outcome.OVERLOAD, retryAfter);
+        }
+
+        @Override
+        public void release() {
+            if (completed.compareAndSet(false, true)) complete(kind, startedAt, Outcome.IGNORE, null);
+        }
+    }
+
+}
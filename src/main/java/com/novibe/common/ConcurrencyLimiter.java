@@ -0,0 +1,40 @@
+package com.novibe.common;
+
+import java.time.Duration;
+
+/**
+ * Limits requests in flight to one API host.
+ */
+public interface ConcurrencyLimiter {
+
+    /**
+     * Waits until a request may be sent, the returned permit has to be completed whatever the request ends with.
+     *
+     * @param kind requests of one kind have comparable latency, e.g. small GETs or POSTs of a thousand items
+     */
+    Permit acquire(String kind) throws InterruptedException;
+
+    /**
+     * One request in flight. Only the first completion counts, so {@link #release()} is safe to call in finally.
+     */
+    interface Permit {
+
+        /**
+         * Response came, the host is not overloaded
+         */
+        void success();
+
+        /**
+         * Host answered 429 or 5xx
+         *
+         * @param retryAfter pause the host asked for, or null
+         */
+        void overload(Duration retryAfter);
+
+        /**
+         * Request ended without telling anything about the host capacity
+         */
+        void release();
+    }
+
+}
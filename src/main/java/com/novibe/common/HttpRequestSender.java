@@ -12,17 +12,33 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.concurrent.Semaphore;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static java.util.Objects.isNull;
 
 public abstract class HttpRequestSender {
 
-    private final Semaphore semaphore = new Semaphore(100);
+    /**
+     * One limiter per {@link #limiterKey(String) key}, shared by all senders of the key
+     */
+    private static final Map<String, ConcurrencyLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final Duration FIRST_BACKOFF = Duration.ofMillis(500);
+    private static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(5);
 
     protected static final String GET = "GET";
     protected static final String POST = "POST";
     protected static final String DELETE = "DELETE";
+    protected static final String PATCH = "PATCH";
+    protected static final String PUT = "PUT";
 
     protected abstract String apiUrl();
 
@@ -34,6 +50,33 @@ public abstract class HttpRequestSender {
 
     protected abstract void react403();
 
+    /**
+     * Limiter of requests in flight, created once per key
+     */
+    protected ConcurrencyLimiter createLimiter(String key) {
+        return new AimdLimiter(key, 8, 1, 100);
+    }
+
+    /**
+     * Which requests share a limiter, by default all requests to the API host.
+     * APIs limiting each account on its own should add the account, so one account's overload does not slow the others.
+     */
+    protected String limiterKey(String host) {
+        return host;
+    }
+
+    /**
+     * Called before every attempt of a request, e.g. to pace requests to the API
+     */
+    protected void beforeAttempt() throws InterruptedException {
+    }
+
+    /**
+     * Called with the response to every attempt of a request, e.g. to learn rate limits of the API
+     */
+    protected void afterAttempt(HttpResponse<?> response) {
+    }
+
     @Setter(onMethod_ = @Autowired, value = AccessLevel.PACKAGE)
     private HttpClient httpClient;
 
@@ -62,6 +105,14 @@ public abstract class HttpRequestSender {
         return sendRequest(POST, path, requestBody, responseType);
     }
 
+    public <T, R> T patch(String path, R requestBody, Class<T> responseType) {
+        return sendRequest(PATCH, path, requestBody, responseType);
+    }
+
+    public <T, R> T put(String path, R requestBody, Class<T> responseType) {
+        return sendRequest(PUT, path, requestBody, responseType);
+    }
+
     public <T> T delete(String path, Class<T> responseType) {
         return sendRequest(DELETE, path, null, responseType);
 
@@ -76,14 +127,39 @@ public abstract class HttpRequestSender {
         } else {
             requestBody = HttpRequest.BodyPublishers.ofString(jsonMapper.toJson(body));
         }
-        semaphore.acquire();
         HttpRequest request = HttpRequest.newBuilder(uri)
                 .header(authHeaderName(), authHeaderValue())
                 .header("Content-Type", "application/json")
                 .method(method, requestBody)
                 .build();
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        semaphore.release();
+        ConcurrencyLimiter limiter = LIMITERS.computeIfAbsent(limiterKey(uri.getHost()), this::createLimiter);
+        HttpResponse<String> response;
+        for (int attempt = 1; ; attempt++) {
+            Duration retryAfter;
+            beforeAttempt();
+            ConcurrencyLimiter.Permit permit = limiter.acquire(latencyKind(method, requestBody.contentLength()));
+            try {
+                response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                afterAttempt(response);
+                retryAfter = retryAfter(response);
+                if (isOverload(response.statusCode())) {
+                    permit.overload(retryAfter);
+                } else {
+                    permit.success();
+                }
+            } finally {
+                permit.release();
+            }
+            int status = response.statusCode();
+            if (attempt == MAX_ATTEMPTS || !isRetryable(method, status)) {
+                break;
+            }
+            Log.debug(() -> "Status %s for %s %s, retrying".formatted(status, method, uri));
+            // With Retry-After the limiter holds all requests to the host, otherwise only this one backs off
+            if (isNull(retryAfter)) {
+                Thread.sleep(backoff(attempt));
+            }
+        }
         if (response.statusCode() > 299) {
             Log.fail("Request failed! Status: %s for %s %s\nReason: %s ".formatted(
                     response.statusCode(),
@@ -106,4 +182,53 @@ public abstract class HttpRequestSender {
         }
         return jsonMapper.fromJson(response.body(), responseBody);
     }
+
+    /**
+     * Method and size class of the body, sizes within a factor of four share a class
+     */
+    private static String latencyKind(String method, long bodyLength) {
+        int sizeClass = bodyLength <= 0 ? 0 : (Long.SIZE - Long.numberOfLeadingZeros(bodyLength) + 1) / 2;
+        return method + " " + sizeClass;
+    }
+
+    private static boolean isOverload(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    /**
+     * 429 and 503 mean the request was not handled. Other 5xx may come after the change was made,
+     * so only idempotent requests are repeated then.
+     */
+    private static boolean isRetryable(String method, int status) {
+        return status == 429 || status == 503 || (status >= 500 && (GET.equals(method) || DELETE.equals(method)));
+    }
+
+    private static Duration backoff(int attempt) {
+        long millis = FIRST_BACKOFF.toMillis() << (attempt - 1);
+        return Duration.ofMillis(millis / 2 + ThreadLocalRandom.current().nextLong(millis / 2 + 1));
+    }
+
+    /**
+     * @return pause from the Retry-After header in seconds or HTTP-date form, null if there is none
+     */
+    private static Duration retryAfter(HttpResponse<?> response) {
+        Optional<String> header = response.headers().firstValue("Retry-After").map(String::strip);
+        if (header.isEmpty()) {
+            return null;
+        }
+        Duration pause;
+        try {
+            pause = Duration.ofSeconds(Long.parseLong(header.get()));
+        } catch (NumberFormatException e) {
+            try {
+                pause = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(header.get(), DateTimeFormatter.RFC_1123_DATE_TIME));
+            } catch (DateTimeParseException unparsed) {
+                return null;
+            }
+        }
+        if (pause.isNegative()) {
+            return Duration.ZERO;
+        }
+        return pause.compareTo(MAX_RETRY_AFTER) > 0 ? MAX_RETRY_AFTER : pause;
+    }
 }
@@ -0,0 +1,229 @@
+package com.novibe.common;
+
+import com.novibe.common.util.Log;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces requests to a limit of requests per window, so the limit is never hit and no window is wasted waiting.
+ * The bucket holds a small burst and refills at the rate left after the burst, so no window ever holds more than the limit.
+ * <p>
+ * The limit is learned from X-RateLimit-* headers when the API sends them. On 429 it drops below the rate actually
+ * sent in the last window and all requests pause for Retry-After or a whole window, then it grows back by a step
+ * per window without 429, up to the ceiling.
+ */
+public class TokenBucketLimiter {
+
+    private static final double BACKOFF = 0.8;
+    private static final double GROWTH = 1.05;
+    private static final int BURST_SHARE = 12;
+
+    private final String name;
+    private final Duration window;
+    private final double minLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Deque<Long> sent = new ArrayDeque<>();
+    private final Map<Object, Integer> waiting = new HashMap<>();
+    private final Deque<Object> turns = new ArrayDeque<>();
+    private double ceiling;
+    private double limit;
+    private double tokens;
+    private long refilledAt;
+    private long pausedUntil;
+    private long cleanSince;
+    private Instant lastRequestAt;
+
+    /**
+     * @param limit         requests per window to start with
+     * @param ceiling       requests per window the limit grows back to, unless the API reports its own
+     * @param lastRequestAt time of the last request of a previous run, its window is still counted by the API
+     */
+    public TokenBucketLimiter(String name, Duration window, double limit, double ceiling, double minLimit, Instant lastRequestAt) {
+        this.name = name;
+        this.window = window;
+        this.minLimit = minLimit;
+        this.ceiling = ceiling;
+        this.limit = limit;
+        this.lastRequestAt = lastRequestAt;
+        long now = System.nanoTime();
+        this.refilledAt = now;
+        this.pausedUntil = now;
+        this.cleanSince = now;
+        // Right after a previous run the bucket starts empty and fills up over one window
+        double rested = Math.clamp((double) Duration.between(lastRequestAt, Instant.now()).toMillis() / window.toMillis(), 0, 1);
+        this.tokens = burst() * rested;
+    }
+
+    /**
+     * Waits for a token. Parties waiting at the same time get tokens in turn, one token per party per turn,
+     * so a party with many requests does not hold back the others.
+     *
+     * @param party who sends the request, e.g. a profile of the API key
+     */
+    public void acquire(Object party) throws InterruptedException {
+        lock.lock();
+        try {
+            if (waiting.merge(party, 1, Integer::sum) == 1) {
+                turns.addLast(party);
+            }
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    refill(now);
+                    long pause = pausedUntil - now;
+                    if (pause > 0) {
+                        changed.awaitNanos(pause);
+                    } else if (tokens < 1) {
+                        changed.awaitNanos((long) Math.ceil((1 - tokens) / ratePerNano()));
+                    } else if (!party.equals(turns.peekFirst())) {
+                        changed.await();
+                    } else {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                leave(party);
+                throw e;
+            }
+            turns.pollFirst();
+            leave(party);
+            tokens--;
+            long now = System.nanoTime();
+            sent.addLast(now);
+            forgetBefore(now - window.toNanos());
+            lastRequestAt = Instant.now();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * One waiter of the party is done waiting, the party keeps a turn while it has others
+     */
+    private void leave(Object party) {
+        if (waiting.merge(party, -1, Integer::sum) == 0) {
+            waiting.remove(party);
+            turns.remove(party);
+        } else if (!turns.contains(party)) {
+            turns.addLast(party);
+        }
+    }
+
+    /**
+     * Learns from the response to a request sent with a token
+     */
+    public void onResponse(int status, HttpHeaders headers) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            header(headers, "X-RateLimit-Limit").ifPresent(reported -> {
+                if (reported > 0 && reported != ceiling) {
+                    Log.common("%s: API reports a limit of %s requests per %s seconds".formatted(name, reported, window.toSeconds()));
+                    ceiling = reported;
+                    limit = reported;
+                }
+            });
+            OptionalLong remaining = header(headers, "X-RateLimit-Remaining");
+            if (remaining.isPresent() && remaining.getAsLong() == 0) {
+                header(headers, "X-RateLimit-Reset").ifPresent(reset -> pause(now, resetDelay(reset)));
+            }
+            if (status == 429) {
+                forgetBefore(now - window.toNanos());
+                double lowered = Math.max(minLimit, Math.min(limit, sent.size()) * BACKOFF);
+                if (lowered < limit) {
+                    limit = lowered;
+                    Log.common("%s: rate limit reached, pacing to %.0f requests per %s seconds"
+                            .formatted(name, limit, window.toSeconds()));
+                }
+                tokens = 0;
+                Duration retryAfter = header(headers, "Retry-After").stream()
+                        .mapToObj(Duration::ofSeconds)
+                        .findFirst()
+                        .orElse(window);
+                pause(now, retryAfter);
+            } else if (status < 300 && limit < ceiling && now - cleanSince >= window.toNanos()) {
+                limit = Math.min(ceiling, limit * GROWTH);
+                cleanSince = now;
+                Log.debug(() -> "%s: pacing to %.0f requests per %s seconds".formatted(name, limit, window.toSeconds()));
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Instant lastRequestAt() {
+        lock.lock();
+        try {
+            return lastRequestAt;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double limit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void pause(long now, Duration duration) {
+        long until = now + duration.toNanos();
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+        }
+        cleanSince = pausedUntil;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst(), tokens + (now - refilledAt) * ratePerNano());
+        refilledAt = now;
+    }
+
+    private void forgetBefore(long time) {
+        while (!sent.isEmpty() && sent.peekFirst() - time < 0) {
+            sent.pollFirst();
+        }
+    }
+
+    private double burst() {
+        return Math.max(1, Math.floor(limit / BURST_SHARE));
+    }
+
+    private double ratePerNano() {
+        return Math.max(1, limit - burst()) / window.toNanos();
+    }
+
+    /**
+     * Reset is either seconds until the window resets or the epoch second it resets at
+     */
+    private static Duration resetDelay(long reset) {
+        long now = Instant.now().getEpochSecond();
+        return Duration.ofSeconds(Math.max(0, reset > now / 2 ? reset - now : reset));
+    }
+
+    private static OptionalLong header(HttpHeaders headers, String name) {
+        try {
+            return headers.firstValue(name)
+                    .map(value -> OptionalLong.of(Long.parseLong(value.strip())))
+                    .orElse(OptionalLong.empty());
+        } catch (NumberFormatException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+}
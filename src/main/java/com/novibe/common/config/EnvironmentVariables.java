@@ -14,8 +14,40 @@ public class EnvironmentVariables {
 
     public static final String REDIRECT = System.getenv("REDIRECT");
 
+    public static final String ALLOW = System.getenv("ALLOW");
+
     public static final String EXTERNAL_IP = System.getenv("EXTERNAL_IP");
 
     public static final String FORCE_REWRITE = System.getenv("FORCE_REWRITE");
 
+    public static final String CACHE_DIR = System.getenv("CACHE_DIR");
+
+    public static final String PROMOTE_PARENT_THRESHOLD = System.getenv("PROMOTE_PARENT_THRESHOLD");
+
+    public static final String CONFLICT_POLICY = System.getenv("CONFLICT_POLICY");
+
+    public static final String SOURCE_TIMEOUT = System.getenv("SOURCE_TIMEOUT");
+
+    public static final String SOURCE_CONCURRENCY = System.getenv("SOURCE_CONCURRENCY");
+
+    public static final String HEDGE_DELAY = System.getenv("HEDGE_DELAY");
+
+    public static final String LIST_SIZE = System.getenv("LIST_SIZE");
+
+    public static final String LIST_SHARDS = System.getenv("LIST_SHARDS");
+
+    public static final String RULE_MAX_LISTS = System.getenv("RULE_MAX_LISTS");
+
+    public static final String RULE_MAX_EXPRESSION = System.getenv("RULE_MAX_EXPRESSION");
+
+    public static final String SYNC_CONCURRENCY = System.getenv("SYNC_CONCURRENCY");
+
+    public static final String SNAPSHOT_MAX_AGE = System.getenv("SNAPSHOT_MAX_AGE");
+
+    public static final String NEXTDNS_RATE_LIMIT = System.getenv("NEXTDNS_RATE_LIMIT");
+
+    public static final String LOG_LEVEL = System.getenv("LOG_LEVEL");
+
+    public static final String LOG_FILE = System.getenv("LOG_FILE");
+
 }
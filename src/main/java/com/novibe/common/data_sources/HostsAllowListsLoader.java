@@ -0,0 +1,80 @@
+package com.novibe.common.data_sources;
+
+import com.novibe.common.data_sources.format.EntrySink;
+import com.novibe.common.domains.DomainSet;
+import org.springframework.stereotype.Service;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Loads domains excluded from blocking.
+ * Every domain of an allow source is an exact entry, "*.domain" entries are kept with the prefix as wildcards,
+ * and exceptions like AdBlock "@@||domain^" allow both the domain and its subdomains.
+ */
+@Service
+public class HostsAllowListsLoader extends ListLoader<String, DomainSet> {
+
+    private static final byte[] WILDCARD_PREFIX = {'*', '.'};
+
+    @Override
+    protected EntrySink sinkFor(DomainSet target) {
+        return new EntrySink() {
+
+            private byte[] wildcard = new byte[256];
+
+            @Override
+            public void block(byte[] buffer, int from, int to) {
+                target.add(buffer, from, to - from);
+            }
+
+            @Override
+            public void blockSubdomains(byte[] buffer, int from, int to) {
+                int length = to - from + WILDCARD_PREFIX.length;
+                if (wildcard.length < length) {
+                    wildcard = new byte[length];
+                }
+                System.arraycopy(WILDCARD_PREFIX, 0, wildcard, 0, WILDCARD_PREFIX.length);
+                System.arraycopy(buffer, from, wildcard, WILDCARD_PREFIX.length, to - from);
+                target.add(wildcard, 0, length);
+            }
+
+            @Override
+            public void allow(byte[] buffer, int from, int to) {
+                block(buffer, from, to);
+                blockSubdomains(buffer, from, to);
+            }
+
+            @Override
+            public void redirect(byte[] buffer, int ipFrom, int ipTo, int domainFrom, int domainTo) {
+            }
+        };
+    }
+
+    @Override
+    protected String listType() {
+        return "Allow";
+    }
+
+    @Override
+    protected DomainSet newSet() {
+        return new DomainSet();
+    }
+
+    @Override
+    protected boolean isOrdered() {
+        return false;
+    }
+
+    @Override
+    protected void writeEntry(DataOutput out, String entry) throws IOException {
+        out.writeUTF(entry);
+    }
+
+    @Override
+    protected String readEntry(DataInput in) throws IOException {
+        return in.readUTF();
+    }
+
+}
@@ -1,48 +1,53 @@
 package com.novibe.common.data_sources;
 
+import com.novibe.common.data_sources.format.EntrySink;
+import com.novibe.common.domains.DomainSet;
 import org.springframework.stereotype.Service;
 
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 @Service
-public class HostsBlockListsLoader extends ListLoader<String> {
+public class HostsBlockListsLoader extends ListLoader<String, DomainSet> {
 
-    private static final String[] BLOCK_PREFIXES = { "0.0.0.0 ", "127.0.0.1 "};
+    @Override
+    protected EntrySink sinkFor(DomainSet target) {
+        return new EntrySink() {
+            @Override
+            public void block(byte[] buffer, int from, int to) {
+                target.add(buffer, from, to - from);
+            }
 
-    public static boolean isBlock(String line) {
-        for (String blockPrefix : BLOCK_PREFIXES) {
-            if (line.startsWith(blockPrefix)) {
-                return true;
+            @Override
+            public void redirect(byte[] buffer, int ipFrom, int ipTo, int domainFrom, int domainTo) {
             }
-        }
-        return false;
+        };
     }
 
     @Override
-    protected Stream<String> lineParser(String urlList) {
-        return Pattern.compile("\\r?\\n").splitAsStream(urlList)
-                .parallel()
-                .map(String::strip)
-                .filter(str -> !str.isBlank())
-                .filter(line -> !line.startsWith("#"))
-                .filter(HostsBlockListsLoader::isBlock)
-                .map(this::removeIp)
-                .map(String::toLowerCase);
+    protected String listType() {
+        return "Block";
     }
 
-    private String removeIp(String line) {
-        for (String blockPrefix : BLOCK_PREFIXES) {
-            if (line.startsWith(blockPrefix)) {
-                return line.substring(blockPrefix.length());
-            }
-        }
-        return line;
+    @Override
+    protected DomainSet newSet() {
+        return new DomainSet();
     }
 
     @Override
-    protected String listType() {
-        return "Block";
+    protected boolean isOrdered() {
+        return false;
+    }
+
+    @Override
+    protected void writeEntry(DataOutput out, String entry) throws IOException {
+        out.writeUTF(entry);
+    }
+
+    @Override
+    protected String readEntry(DataInput in) throws IOException {
+        return in.readUTF();
     }
 
 
@@ -1,27 +1,39 @@
 package com.novibe.common.data_sources;
 
 import com.novibe.common.config.EnvironmentVariables;
+import com.novibe.common.data_sources.format.EntrySink;
 import com.novibe.common.util.Log;
 import org.springframework.stereotype.Service;
 
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
 
 @Service
-public class HostsOverrideListsLoader extends ListLoader<HostsOverrideListsLoader.BypassRoute> {
+public class HostsOverrideListsLoader extends ListLoader<HostsOverrideListsLoader.BypassRoute, LinkedHashSet<HostsOverrideListsLoader.BypassRoute>> {
 
     public record BypassRoute(String ip, String website) {
     }
 
     @Override
-    protected Stream<BypassRoute> lineParser(String urlList) {
-        return Pattern.compile("\\r?\\n").splitAsStream(urlList)
-                .parallel()
-                .map(String::strip)
-                .filter(str -> !str.isBlank())
-                .filter(line -> !line.startsWith("#"))
-                .filter(line -> !HostsBlockListsLoader.isBlock(line))
-                .map(this::mapLine);
+    protected EntrySink sinkFor(LinkedHashSet<BypassRoute> target) {
+        return new EntrySink() {
+            @Override
+            public void block(byte[] buffer, int from, int to) {
+            }
+
+            @Override
+            public void redirect(byte[] buffer, int ipFrom, int ipTo, int domainFrom, int domainTo) {
+                String ip = new String(buffer, ipFrom, ipTo - ipFrom, StandardCharsets.US_ASCII);
+                String website = new String(buffer, domainFrom, domainTo - domainFrom, StandardCharsets.UTF_8);
+                target.add(mapRoute(ip, website));
+            }
+        };
     }
 
     @Override
@@ -29,18 +41,38 @@ public class HostsOverrideListsLoader extends ListLoader<HostsOverrideListsLoade
         return "Override";
     }
 
-    private BypassRoute mapLine(String line) {
-        int delimiter = line.indexOf(" ");
-        String originalIp = line.substring(0, delimiter++);
-        String website = line.substring(delimiter);
+    @Override
+    protected LinkedHashSet<BypassRoute> newSet() {
+        return new LinkedHashSet<>();
+    }
+
+    @Override
+    protected void writeEntry(DataOutput out, BypassRoute entry) throws IOException {
+        out.writeUTF(entry.ip());
+        out.writeUTF(entry.website());
+    }
+
+    @Override
+    protected BypassRoute readEntry(DataInput in) throws IOException {
+        return new BypassRoute(in.readUTF(), in.readUTF());
+    }
+
+    @Override
+    protected String cacheVariant() {
+        // Parsed routes already contain EXTERNAL_IP, so cache is valid only for the same value
+        return Objects.requireNonNullElse(EnvironmentVariables.EXTERNAL_IP, "");
+    }
+
+    private BypassRoute mapRoute(String originalIp, String website) {
         String ip = originalIp;
         
         // Use EXTERNAL_IP if environment variable is set, otherwise use IP from file
         if (EnvironmentVariables.EXTERNAL_IP != null && !EnvironmentVariables.EXTERNAL_IP.isBlank()) {
             ip = EnvironmentVariables.EXTERNAL_IP;
-            Log.io("Processing: %s -> %s (IP changed from %s to %s)".formatted(website, ip, originalIp, ip));
+            Log.debug(() -> "Processing: %s -> %s (IP changed from %s to %s)"
+                    .formatted(website, EnvironmentVariables.EXTERNAL_IP, originalIp, EnvironmentVariables.EXTERNAL_IP));
         } else {
-            Log.io("Processing: %s -> %s".formatted(website, ip));
+            Log.debug(() -> "Processing: %s -> %s".formatted(website, originalIp));
         }
         
         return new BypassRoute(ip, website);
@@ -53,9 +85,9 @@ public class HostsOverrideListsLoader extends ListLoader<HostsOverrideListsLoade
      * @param externalIp IP to override with (if not null and not blank)
      * @return New list of routes with overridden IPs
      */
-    public java.util.List<BypassRoute> applyExternalIp(java.util.List<BypassRoute> routes, String externalIp) {
+    public List<BypassRoute> applyExternalIp(Collection<BypassRoute> routes, String externalIp) {
         if (externalIp == null || externalIp.isBlank()) {
-            return routes;
+            return List.copyOf(routes);
         }
         
         Log.io("Applying EXTERNAL_IP %s to %d routes".formatted(externalIp, routes.size()));
@@ -1,5 +1,11 @@
 package com.novibe.common.data_sources;
 
+import com.novibe.common.data_sources.format.EntrySink;
+import com.novibe.common.data_sources.format.NormalizingSink;
+import com.novibe.common.data_sources.format.RejectionReport;
+import com.novibe.common.data_sources.format.SourceFormat;
+import com.novibe.common.data_sources.format.SourceFormats;
+import com.novibe.common.util.EnvParser;
 import com.novibe.common.util.Log;
 import lombok.Cleanup;
 import lombok.Setter;
@@ -7,49 +13,271 @@ import lombok.SneakyThrows;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.StructuredTaskScope;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.novibe.common.config.EnvironmentVariables.HEDGE_DELAY;
+import static com.novibe.common.config.EnvironmentVariables.SOURCE_CONCURRENCY;
+import static com.novibe.common.config.EnvironmentVariables.SOURCE_TIMEOUT;
 
 @Profile("CLOUDFLARE")
 @Setter(onMethod_ = @Autowired)
-public abstract class ListLoader<T> {
+public abstract class ListLoader<T, S extends Set<T>> {
 
     private HttpClient client;
 
-    protected abstract Stream<T> lineParser(String urlList);
+    private SourceCache sourceCache;
+
+    private SourceFormats sourceFormats;
+
+    private LocalSourceScanner localSourceScanner;
+
+    private final Duration sourceTimeout = Duration.ofSeconds(EnvParser.parseInt(SOURCE_TIMEOUT, 180));
+
+    private final Duration hedgeDelay = Duration.ofMillis(EnvParser.parseInt(HEDGE_DELAY, 3000));
+
+    private final Semaphore downloads = new Semaphore(EnvParser.parseInt(SOURCE_CONCURRENCY, 4));
+
+    /**
+     * Creates a sink collecting entries relevant for this list type into the target set.
+     */
+    protected abstract EntrySink sinkFor(S target);
 
     protected abstract String listType();
 
+    /**
+     * Creates a set to collect parsed unique entries into.
+     */
+    protected abstract S newSet();
+
+    protected abstract void writeEntry(DataOutput out, T entry) throws IOException;
+
+    protected abstract T readEntry(DataInput in) throws IOException;
+
+    /**
+     * Whether entries order matters. Unordered lists must provide a thread-safe set, which is then filled concurrently.
+     */
+    protected boolean isOrdered() {
+        return true;
+    }
+
+    /**
+     * Settings the parsed entries depend on. Cached entries parsed with other settings are not reused.
+     */
+    protected String cacheVariant() {
+        return "";
+    }
+
+    /**
+     * Loads all sources and merges them in the provided order, so entries of the first source keep priority.
+     */
+    public S fetchWebsites(List<String> sources) {
+        S merged = newSet();
+        for (S parsed : fetchSources(sources)) {
+            merged.addAll(parsed);
+            parsed.clear();
+        }
+        return merged;
+    }
+
+    /**
+     * Loads all sources concurrently, at most SOURCE_CONCURRENCY at a time.
+     * A failed source is replaced with its last-known-good cached copy, so one broken mirror never fails the run.
+     *
+     * @return entries of every loaded source, in the provided sources order
+     */
     @SneakyThrows
     @SuppressWarnings("preview")
-    public List<T> fetchWebsites(List<String> urls) {
-        @Cleanup var scope = StructuredTaskScope.open();
-        List<StructuredTaskScope.Subtask<String>> requests = new ArrayList<>();
-        urls.stream()
-                .map(url -> scope.fork(() -> fetchList(url)))
-                .forEach(requests::add);
-        scope.join();
-        return requests.stream()
-                .map(StructuredTaskScope.Subtask::get)
-                .flatMap(this::lineParser)
-                .distinct()
-                .collect(Collectors.toCollection(ArrayList::new));
+    public List<S> fetchSources(List<String> sources) {
+        var joiner = new PartialSuccessJoiner<S>(sources, index -> lastKnownGood(sources.get(index)));
+        @Cleanup var scope = StructuredTaskScope.open(joiner);
+        for (String source : sources) {
+            scope.fork(() -> {
+                downloads.acquire();
+                try {
+                    return fetchSource(source);
+                } finally {
+                    downloads.release();
+                }
+            });
+        }
+        return scope.join();
     }
 
+    /**
+     * Fetches one source given as "primary|mirror|...", all within SOURCE_TIMEOUT.
+     * A mirror is requested only when the previous URL has failed, even after its headers arrived,
+     * or has not responded within HEDGE_DELAY. The first URL loaded successfully wins and the others are cancelled.
+     */
     @SneakyThrows
-    private String fetchList(String url) {
+    @SuppressWarnings("preview")
+    private S fetchSource(String source) {
+        @Cleanup var scope = StructuredTaskScope.open(StructuredTaskScope.Joiner.<S>anySuccessfulResultOrThrow(),
+                config -> config.withTimeout(sourceTimeout));
+        Attempt previous = null;
+        for (String url : mirrorsOf(source)) {
+            Attempt hedged = previous;
+            Attempt attempt = new Attempt();
+            scope.fork(() -> {
+                try {
+                    if (hedged != null && !hedged.needsHedge(hedgeDelay)) {
+                        // The previous URL was loaded, so this one and the next mirrors are not needed
+                        attempt.responded = true;
+                        attempt.loaded = true;
+                        throw new IllegalStateException("Mirror is not needed: " + url);
+                    }
+                    if (hedged != null) {
+                        Log.io("Trying mirror of %s list: %s".formatted(listType(), url));
+                    }
+                    S parsed = fetchList(url, attempt);
+                    attempt.loaded = true;
+                    return parsed;
+                } finally {
+                    attempt.settled.countDown();
+                    attempt.finished.countDown();
+                }
+            });
+            previous = attempt;
+        }
+        return scope.join();
+    }
+
+    private Optional<S> lastKnownGood(String source) {
+        for (String url : mirrorsOf(source)) {
+            Optional<SourceCache.CachedSource> cached = sourceCache.lookup(listType(), url, cacheVariant());
+            if (cached.isEmpty()) {
+                continue;
+            }
+            try {
+                return Optional.of(sourceCache.readEntries(cached.get(), newSet(), this::readEntry));
+            } catch (IOException e) {
+                Log.fail("Ignoring broken cache file %s: %s".formatted(cached.get().file(), e.getMessage()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static List<String> mirrorsOf(String source) {
+        return Arrays.stream(source.split("\\|"))
+                .map(String::strip)
+                .filter(url -> !url.isEmpty())
+                .toList();
+    }
+
+    /**
+     * Progress of one URL request, watched by the next mirror to decide whether to start.
+     */
+    private static final class Attempt {
+
+        /**
+         * Counted down once the response headers arrived or the request failed
+         */
+        private final CountDownLatch settled = new CountDownLatch(1);
+
+        /**
+         * Counted down once the whole body was loaded or the request failed
+         */
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private volatile boolean responded;
+
+        private volatile boolean loaded;
+
+        void markResponded() {
+            responded = true;
+            settled.countDown();
+        }
+
+        /**
+         * A mirror is needed if the previous URL has not responded within the delay, or has responded
+         * but then failed to deliver the body, e.g. a truncated stream or broken compression.
+         */
+        boolean needsHedge(Duration delay) throws InterruptedException {
+            settled.await(delay.toMillis(), TimeUnit.MILLISECONDS);
+            if (!responded) {
+                return true;
+            }
+            finished.await();
+            return !loaded;
+        }
+    }
+
+    /**
+     * Streams the response body and scans it line by line while bytes arrive,
+     * so only unique parsed entries are kept in memory, never the whole body.
+     * If the source is cached, it is revalidated first and reused without parsing when not modified.
+     * Every domain is normalized before it reaches the list sink, invalid ones are reported per source.
+     */
+    @SneakyThrows
+    private S fetchList(String url, Attempt attempt) {
+        RejectionReport rejections = new RejectionReport();
+        Function<S, EntrySink> normalizingSink = target -> new NormalizingSink(sinkFor(target), rejections);
+        if (url.startsWith("file:")) {
+            attempt.markResponded();
+            Log.io("Loading %s list from local path: %s".formatted(listType(), url));
+            S parsed = localSourceScanner.scan(Path.of(URI.create(url)), this::newSet, normalizingSink, isOrdered());
+            logRejections(rejections, url);
+            return parsed;
+        }
         Log.io("Loading %s list from url: %s".formatted(listType(), url));
-        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
-                .GET()
-                .build();
-        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+        Optional<SourceCache.CachedSource> cached = sourceCache.lookup(listType(), url, cacheVariant());
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(sourceTimeout)
+                .header("Accept-Encoding", SourceDecompressor.ACCEPT_ENCODING)
+                .GET();
+        cached.map(SourceCache.CachedSource::etag).ifPresent(etag -> request.header("If-None-Match", etag));
+        cached.map(SourceCache.CachedSource::lastModified).ifPresent(date -> request.header("If-Modified-Since", date));
+
+        HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        @Cleanup InputStream rawBody = response.body();
+        if (response.statusCode() >= 400) {
+            throw new IOException("HTTP %s from %s".formatted(response.statusCode(), url));
+        }
+        attempt.markResponded();
+        if (response.statusCode() == 304 && cached.isPresent()) {
+            S entries = sourceCache.readEntries(cached.get(), newSet(), this::readEntry);
+            Log.io("%s list is not modified, reused %s cached entries: %s".formatted(listType(), entries.size(), url));
+            return entries;
+        }
+
+        @Cleanup InputStream body = SourceDecompressor.decode(
+                rawBody, response.headers().firstValue("Content-Encoding").orElse(null), url);
+
+        S parsed = newSet();
+        SourceFormat format = sourceFormats.scan(body, normalizingSink.apply(parsed));
+        Log.io("Parsed %s entries of %s list in %s format: %s".formatted(parsed.size(), listType(), format.name(), url));
+        logRejections(rejections, url);
+        if (response.statusCode() == 200) {
+            sourceCache.write(listType(), url, cacheVariant(),
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null),
+                    parsed, this::writeEntry);
+        }
+        return parsed;
+    }
+
+    private void logRejections(RejectionReport rejections, String url) {
+        if (rejections.total() > 0) {
+            Log.common("Rejected %s invalid entries of %s list %s: %s"
+                    .formatted(rejections.total(), listType(), url, rejections));
+        }
     }
 
 }
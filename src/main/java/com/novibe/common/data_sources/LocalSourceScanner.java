@@ -0,0 +1,191 @@
+package com.novibe.common.data_sources;
+
+import com.novibe.common.data_sources.format.EntrySink;
+import com.novibe.common.data_sources.format.SourceFormat;
+import com.novibe.common.data_sources.format.SourceFormats;
+import com.novibe.common.util.Log;
+import lombok.Cleanup;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Scans local source files and directories.
+ * A plain file is memory-mapped and split into newline-aligned byte ranges scanned in the common ForkJoinPool,
+ * so a large local corpus is parsed on all cores. Archives are decompressed and scanned as a stream.
+ */
+@Component
+@RequiredArgsConstructor
+public class LocalSourceScanner {
+
+    private static final long LEAF_SIZE = 4L << 20;
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int DETECTION_SAMPLE_SIZE = 1 << 16;
+    private static final int MAGIC_LENGTH = 6;
+
+    private final SourceFormats sourceFormats;
+
+    /**
+     * @param ordered whether entries have to be merged in file order; otherwise all ranges share one thread-safe set
+     */
+    public <T, S extends Set<T>> S scan(Path path,
+                                        Supplier<S> newSet,
+                                        Function<S, EntrySink> sinkFor,
+                                        boolean ordered) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return scanFile(path, newSet, sinkFor, ordered);
+        }
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(path)) {
+            files = listing
+                    .filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().startsWith("."))
+                    .sorted()
+                    .toList();
+        }
+        S merged = newSet.get();
+        for (Path file : files) {
+            S parsed = scanFile(file, newSet, sinkFor, ordered);
+            merged.addAll(parsed);
+            parsed.clear();
+        }
+        return merged;
+    }
+
+    private <T, S extends Set<T>> S scanFile(Path file,
+                                             Supplier<S> newSet,
+                                             Function<S, EntrySink> sinkFor,
+                                             boolean ordered) throws IOException {
+        S parsed = newSet.get();
+        byte[] head;
+        try (InputStream in = Files.newInputStream(file)) {
+            head = in.readNBytes(MAGIC_LENGTH);
+        }
+        if (SourceDecompressor.isArchive(head, file.toString())) {
+            @Cleanup InputStream in = SourceDecompressor.decode(Files.newInputStream(file), null, file.toString());
+            SourceFormat format = sourceFormats.scan(in, sinkFor.apply(parsed));
+            Log.io("Parsed %s entries from archive %s in %s format".formatted(parsed.size(), file, format.name()));
+            return parsed;
+        }
+
+        @Cleanup FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        long size = channel.size();
+        if (size == 0) {
+            return parsed;
+        }
+        @Cleanup Arena arena = Arena.ofShared();
+        MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+
+        byte[] sample = new byte[(int) Math.min(size, DETECTION_SAMPLE_SIZE)];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, 0, sample, 0, sample.length);
+        int start = hasBom(sample) ? 3 : 0;
+        SourceFormat format = sourceFormats.detect(sample, start, sample.length);
+
+        S result = ForkJoinPool.commonPool().invoke(
+                new RangeTask<>(segment, start, size, format, newSet, sinkFor, ordered ? null : parsed));
+        Log.io("Parsed %s entries from file %s in %s format".formatted(result.size(), file, format.name()));
+        return result;
+    }
+
+    private static boolean hasBom(byte[] sample) {
+        return sample.length >= 3 && sample[0] == (byte) 0xEF && sample[1] == (byte) 0xBB && sample[2] == (byte) 0xBF;
+    }
+
+    private final class RangeTask<T, S extends Set<T>> extends RecursiveTask<S> {
+
+        private final MemorySegment segment;
+        private final long from;
+        private final long to;
+        private final SourceFormat format;
+        private final Supplier<S> newSet;
+        private final Function<S, EntrySink> sinkFor;
+        private final S shared;
+
+        private RangeTask(MemorySegment segment,
+                          long from,
+                          long to,
+                          SourceFormat format,
+                          Supplier<S> newSet,
+                          Function<S, EntrySink> sinkFor,
+                          S shared) {
+            this.segment = segment;
+            this.from = from;
+            this.to = to;
+            this.format = format;
+            this.newSet = newSet;
+            this.sinkFor = sinkFor;
+            this.shared = shared;
+        }
+
+        @Override
+        protected S compute() {
+            if (to - from > LEAF_SIZE) {
+                long split = nextLineStart(from + (to - from) / 2);
+                if (split < to) {
+                    RangeTask<T, S> left = new RangeTask<>(segment, from, split, format, newSet, sinkFor, shared);
+                    RangeTask<T, S> right = new RangeTask<>(segment, split, to, format, newSet, sinkFor, shared);
+                    left.fork();
+                    S rightResult = right.compute();
+                    S leftResult = left.join();
+                    if (shared != null) {
+                        return shared;
+                    }
+                    // Left range goes first to keep file order
+                    leftResult.addAll(rightResult);
+                    rightResult.clear();
+                    return leftResult;
+                }
+            }
+            S target = shared != null ? shared : newSet.get();
+            scanRange(sinkFor.apply(target));
+            return target;
+        }
+
+        private long nextLineStart(long position) {
+            while (position < to && segment.get(ValueLayout.JAVA_BYTE, position) != '\n') {
+                position++;
+            }
+            return position + 1;
+        }
+
+        private void scanRange(EntrySink sink) {
+            byte[] buffer = new byte[(int) Math.min(BLOCK_SIZE, to - from)];
+            long position = from;
+            int carry = 0;
+            while (position < to) {
+                int read = (int) Math.min(buffer.length - carry, to - position);
+                MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, position, buffer, carry, read);
+                position += read;
+                int length = carry + read;
+                int tail = sourceFormats.scanLines(format, buffer, 0, length, sink);
+                carry = length - tail;
+                if (carry == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                } else {
+                    System.arraycopy(buffer, tail, buffer, 0, carry);
+                }
+            }
+            if (carry > 0) {
+                sourceFormats.scanLine(format, buffer, 0, carry, sink);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.novibe.common.data_sources;
+
+import com.novibe.common.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.StructuredTaskScope.Subtask;
+import java.util.function.IntFunction;
+
+/**
+ * Waits for every source without cancelling the others when one fails.
+ * A failed source is replaced with its last-known-good copy if there is one, otherwise it is skipped.
+ * Results keep the fork order; the join fails only if no source produced entries at all.
+ */
+@SuppressWarnings("preview")
+final class PartialSuccessJoiner<S> implements StructuredTaskScope.Joiner<S, List<S>> {
+
+    private final List<String> sources;
+    private final IntFunction<Optional<S>> lastKnownGood;
+    private final List<Subtask<? extends S>> subtasks = new ArrayList<>();
+
+    /**
+     * @param lastKnownGood loads the cached copy of the source with the given fork index
+     */
+    PartialSuccessJoiner(List<String> sources, IntFunction<Optional<S>> lastKnownGood) {
+        this.sources = sources;
+        this.lastKnownGood = lastKnownGood;
+    }
+
+    @Override
+    public boolean onFork(Subtask<? extends S> subtask) {
+        subtasks.add(subtask);
+        return false;
+    }
+
+    @Override
+    public List<S> result() {
+        List<S> results = new ArrayList<>(subtasks.size());
+        int lost = 0;
+        for (int i = 0; i < subtasks.size(); i++) {
+            Subtask<? extends S> subtask = subtasks.get(i);
+            if (subtask.state() == Subtask.State.SUCCESS) {
+                results.add(subtask.get());
+                continue;
+            }
+            String reason = describe(subtask.state() == Subtask.State.FAILED ? subtask.exception() : null);
+            Optional<S> fallback = lastKnownGood.apply(i);
+            if (fallback.isPresent()) {
+                Log.fail("Source %s failed (%s), using its last known good copy".formatted(sources.get(i), reason));
+                results.add(fallback.get());
+            } else {
+                Log.fail("Source %s failed (%s) and has no cached copy, it is skipped".formatted(sources.get(i), reason));
+                lost++;
+            }
+        }
+        if (lost > 0 && lost == subtasks.size()) {
+            throw new IllegalStateException("All %s sources failed".formatted(lost));
+        }
+        return results;
+    }
+
+    private static String describe(Throwable failure) {
+        if (failure instanceof StructuredTaskScope.FailedException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure == null) {
+            return "not completed";
+        }
+        if (failure instanceof StructuredTaskScope.TimeoutException) {
+            return "timed out";
+        }
+        return failure.getMessage() != null ? failure.getMessage() : failure.getClass().getSimpleName();
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.novibe.common.data_sources;
+
+import com.novibe.common.config.EnvironmentVariables;
+import com.novibe.common.util.Log;
+import lombok.Cleanup;
+import org.jspecify.annotations.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Objects.isNull;
+
+/**
+ * On-disk cache of parsed sources.
+ * Keeps ETag/Last-Modified of every source together with its parsed, deduplicated entries,
+ * so an unchanged source can be revalidated with a conditional GET and reused without parsing.
+ * Enabled only when CACHE_DIR environment variable is set.
+ */
+@Component
+public class SourceCache {
+
+    private static final int MAGIC = 0x444E5343;
+    private static final int FORMAT_VERSION = 3;
+
+    private final @Nullable Path directory;
+
+    public SourceCache() {
+        String cacheDir = EnvironmentVariables.CACHE_DIR;
+        this.directory = isNull(cacheDir) || cacheDir.isBlank() ? null : Path.of(cacheDir.strip(), "sources");
+    }
+
+    public interface EntryWriter<T> {
+        void write(DataOutput out, T entry) throws IOException;
+    }
+
+    public interface EntryReader<T> {
+        T read(DataInput in) throws IOException;
+    }
+
+    /**
+     * Validators of a cached source. Entries are read lazily, only when the source was not modified.
+     */
+    public record CachedSource(Path file, @Nullable String etag, @Nullable String lastModified) {
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * @param variant parser settings the cached entries depend on; cache with another variant is ignored
+     */
+    public Optional<CachedSource> lookup(String listType, String url, String variant) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+        Path file = fileFor(listType, url);
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try {
+            @Cleanup DataInputStream in = open(file);
+            if (!variant.equals(in.readUTF())) {
+                return Optional.empty();
+            }
+            return Optional.of(new CachedSource(file, emptyToNull(in.readUTF()), emptyToNull(in.readUTF())));
+        } catch (IOException e) {
+            Log.fail("Ignoring broken cache file %s: %s".formatted(file, e.getMessage()));
+            return Optional.empty();
+        }
+    }
+
+    public <T, S extends Set<T>> S readEntries(CachedSource cachedSource, S entries, EntryReader<T> reader)
+            throws IOException {
+        @Cleanup DataInputStream in = open(cachedSource.file());
+        in.readUTF();
+        in.readUTF();
+        in.readUTF();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            entries.add(reader.read(in));
+        }
+        return entries;
+    }
+
+    public <T> void write(String listType,
+                          String url,
+                          String variant,
+                          @Nullable String etag,
+                          @Nullable String lastModified,
+                          Set<T> entries,
+                          EntryWriter<T> writer) {
+        if (!isEnabled()) {
+            return;
+        }
+        Path file = fileFor(listType, url);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp), 1 << 16)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeUTF(variant);
+                    out.writeUTF(isNull(etag) ? "" : etag);
+                    out.writeUTF(isNull(lastModified) ? "" : lastModified);
+                    out.writeInt(entries.size());
+                    for (T entry : entries) {
+                        writer.write(out, entry);
+                    }
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                // Left behind only if writing failed, it would pile up in the cache otherwise
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            Log.fail("Failed to cache %s list from url %s: %s".formatted(listType, url, e.getMessage()));
+        }
+    }
+
+    private DataInputStream open(Path file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 1 << 16)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("unsupported cache format");
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private Path fileFor(String listType, String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest((listType + "|" + url).getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(hash) + ".bin");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static @Nullable String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+}
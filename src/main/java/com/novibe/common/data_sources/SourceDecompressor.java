@@ -0,0 +1,100 @@
+package com.novibe.common.data_sources;
+
+import com.github.luben.zstd.ZstdInputStream;
+import lombok.experimental.UtilityClass;
+import org.brotli.dec.BrotliInputStream;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Transparent decompression of source bodies.
+ * Handles both HTTP Content-Encoding and sources published as .gz/.zst/.xz/.br archives.
+ * Decoders wrap the original stream, so the source is decompressed while it is being scanned
+ * and neither compressed nor decompressed copy is held in memory.
+ */
+@UtilityClass
+public class SourceDecompressor {
+
+    public static final String ACCEPT_ENCODING = "gzip, deflate, br, zstd";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAGIC_LENGTH = 6;
+
+    private static final byte[] GZIP_MAGIC = {(byte) 0x1F, (byte) 0x8B};
+    private static final byte[] ZSTD_MAGIC = {(byte) 0x28, (byte) 0xB5, (byte) 0x2F, (byte) 0xFD};
+    private static final byte[] XZ_MAGIC = {(byte) 0xFD, '7', 'z', 'X', 'Z', 0};
+
+    /**
+     * @param contentEncoding value of Content-Encoding header, null if absent
+     * @param location        source URL or path, used to recognize archives without magic bytes
+     */
+    public InputStream decode(InputStream body, String contentEncoding, String location) throws IOException {
+        InputStream decoded = body;
+        if (contentEncoding != null) {
+            // Encodings are listed in the order they were applied
+            List<String> encodings = Arrays.stream(contentEncoding.split(","))
+                    .map(encoding -> encoding.strip().toLowerCase(Locale.ROOT))
+                    .toList()
+                    .reversed();
+            for (String encoding : encodings) {
+                decoded = decodeContent(decoded, encoding);
+            }
+        }
+        return decodeArchive(decoded, location.toLowerCase(Locale.ROOT));
+    }
+
+    private InputStream decodeContent(InputStream in, String encoding) throws IOException {
+        return switch (encoding) {
+            case "gzip", "x-gzip" -> new GZIPInputStream(in, BUFFER_SIZE);
+            case "deflate" -> new InflaterInputStream(in);
+            case "br" -> new BrotliInputStream(in);
+            case "zstd" -> new ZstdInputStream(in);
+            case "", "identity" -> in;
+            default -> throw new IOException("Unsupported Content-Encoding: " + encoding);
+        };
+    }
+
+    /**
+     * Tells whether the source is an archive, judging by its first bytes and location.
+     */
+    public boolean isArchive(byte[] head, String location) {
+        return startsWith(head, GZIP_MAGIC)
+                || startsWith(head, ZSTD_MAGIC)
+                || startsWith(head, XZ_MAGIC)
+                || location.toLowerCase(Locale.ROOT).endsWith(".br");
+    }
+
+    private InputStream decodeArchive(InputStream in, String location) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(MAGIC_LENGTH);
+        byte[] magic = buffered.readNBytes(MAGIC_LENGTH);
+        buffered.reset();
+        if (startsWith(magic, GZIP_MAGIC)) {
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        }
+        if (startsWith(magic, ZSTD_MAGIC)) {
+            return new ZstdInputStream(buffered);
+        }
+        if (startsWith(magic, XZ_MAGIC)) {
+            return new XZInputStream(buffered);
+        }
+        // Brotli has no magic bytes, so it is recognized by extension only
+        if (location.endsWith(".br")) {
+            return new BrotliInputStream(buffered);
+        }
+        return buffered;
+    }
+
+    private boolean startsWith(byte[] bytes, byte[] prefix) {
+        return bytes.length >= prefix.length && Arrays.equals(bytes, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.novibe.common.data_sources.format;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import static com.novibe.common.data_sources.format.ByteTokens.*;
+
+/**
+ * AdBlock-style DNS filter: "||domain^" blocks, "@@||domain^" exceptions.
+ * Rules with paths, wildcards or modifiers other than $important can't be expressed on DNS level and are skipped.
+ */
+@Component
+@Order(2)
+public class AdBlockFormat implements SourceFormat {
+
+    private static final byte[] RULE_PREFIX = ascii("||");
+    private static final byte[] EXCEPTION_PREFIX = ascii("@@");
+    private static final byte[] HEADER_PREFIX = ascii("[Adblock");
+    private static final byte[] IMPORTANT_MODIFIER = ascii("$important");
+
+    @Override
+    public String name() {
+        return "adblock";
+    }
+
+    @Override
+    public boolean recognizes(byte[] line, int from, int to) {
+        int start = skipSpaces(line, from, to);
+        return startsWith(line, start, to, RULE_PREFIX)
+                || startsWith(line, start, to, EXCEPTION_PREFIX)
+                || startsWith(line, start, to, HEADER_PREFIX);
+    }
+
+    @Override
+    public void scan(byte[] line, int from, int to, EntrySink sink) {
+        int start = skipSpaces(line, from, to);
+        int end = trimEnd(line, start, to);
+        boolean exception = startsWith(line, start, end, EXCEPTION_PREFIX);
+        if (exception) {
+            start += EXCEPTION_PREFIX.length;
+        }
+        if (!startsWith(line, start, end, RULE_PREFIX)) {
+            return;
+        }
+        start += RULE_PREFIX.length;
+        int caret = indexOf(line, (byte) '^', start, end);
+        if (caret < 0 || !isDomainToken(line, start, caret) || !isSupportedTail(line, caret + 1, end)) {
+            return;
+        }
+        toLowerCase(line, start, caret);
+        if (exception) {
+            sink.allow(line, start, caret);
+        } else {
+            sink.block(line, start, caret);
+        }
+    }
+
+    private static boolean isSupportedTail(byte[] line, int from, int to) {
+        if (from < to && line[from] == '|') {
+            from++;
+        }
+        return from == to || equalsIgnoreCase(line, from, to, IMPORTANT_MODIFIER);
+    }
+
+}
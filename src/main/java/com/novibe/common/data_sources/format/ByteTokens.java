@@ -0,0 +1,163 @@
+package com.novibe.common.data_sources.format;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Allocation-free helpers for scanning ASCII tokens in a byte buffer.
+ */
+final class ByteTokens {
+
+    private ByteTokens() {
+    }
+
+    static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    static int skipSpaces(byte[] buffer, int from, int to) {
+        while (from < to && isSpace(buffer[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    static int trimEnd(byte[] buffer, int from, int to) {
+        while (to > from && (isSpace(buffer[to - 1]) || buffer[to - 1] == '\r')) {
+            to--;
+        }
+        return to;
+    }
+
+    static int tokenEnd(byte[] buffer, int from, int to) {
+        while (from < to && !isSpace(buffer[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    static int indexOf(byte[] buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index where an inline comment starts, or "to" if there is none
+     */
+    static int commentStart(byte[] buffer, int from, int to, byte commentChar) {
+        int index = indexOf(buffer, commentChar, from, to);
+        return index < 0 ? to : index;
+    }
+
+    static void toLowerCase(byte[] buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = buffer[i];
+            if (b >= 'A' && b <= 'Z') {
+                buffer[i] = (byte) (b + ('a' - 'A'));
+            }
+        }
+    }
+
+    static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static boolean equalsIgnoreCase(byte[] buffer, int from, int to, byte[] lowerCaseLiteral) {
+        if (to - from != lowerCaseLiteral.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCaseLiteral.length; i++) {
+            byte b = buffer[from + i];
+            if (b >= 'A' && b <= 'Z') {
+                b = (byte) (b + ('a' - 'A'));
+            }
+            if (b != lowerCaseLiteral[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean startsWith(byte[] buffer, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isIp(byte[] buffer, int from, int to) {
+        return isIpv4(buffer, from, to) || isIpv6(buffer, from, to);
+    }
+
+    static boolean isIpv4(byte[] buffer, int from, int to) {
+        int dots = 0;
+        int digits = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buffer[i];
+            if (b == '.') {
+                if (digits == 0) {
+                    return false;
+                }
+                dots++;
+                digits = 0;
+            } else if (b >= '0' && b <= '9' && digits < 3) {
+                digits++;
+            } else {
+                return false;
+            }
+        }
+        return dots == 3 && digits > 0;
+    }
+
+    static boolean isIpv6(byte[] buffer, int from, int to) {
+        boolean colon = false;
+        for (int i = from; i < to; i++) {
+            byte b = buffer[i];
+            if (b == ':') {
+                colon = true;
+            } else if (!(b >= '0' && b <= '9' || b >= 'a' && b <= 'f' || b >= 'A' && b <= 'F' || b == '.')) {
+                return false;
+            }
+        }
+        return colon;
+    }
+
+    private static final byte[][] BLOCKING_IPS = {
+            ascii("0.0.0.0"), ascii("127.0.0.1"), ascii("::"), ascii("::1"), ascii("::0")
+    };
+
+    static boolean isBlockingIp(byte[] buffer, int from, int to) {
+        for (byte[] ip : BLOCKING_IPS) {
+            if (equalsIgnoreCase(buffer, from, to, ip)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks that a token consists of domain characters only, so paths, wildcards and URLs are skipped.
+     * A port is let through, {@link DomainNormalizer} strips it.
+     */
+    static boolean isDomainToken(byte[] buffer, int from, int to) {
+        if (from >= to) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            byte b = buffer[i];
+            if (b == '/' || b == '*' || b == '^' || b == '|' || b == '$' || b == '=' || b == '@') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.novibe.common.data_sources.format;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import static com.novibe.common.data_sources.format.ByteTokens.*;
+
+/**
+ * Dnsmasq config: "address=/domain[/domain...]/[target]" and "local=/domain/".
+ * Empty, "#" or blocking IP target is a block, any other IP is a redirect.
+ */
+@Component
+@Order(3)
+public class DnsmasqFormat implements SourceFormat {
+
+    private static final byte[] ADDRESS_PREFIX = ascii("address=/");
+    private static final byte[] LOCAL_PREFIX = ascii("local=/");
+    private static final byte[] SERVER_PREFIX = ascii("server=/");
+
+    @Override
+    public String name() {
+        return "dnsmasq";
+    }
+
+    @Override
+    public boolean recognizes(byte[] line, int from, int to) {
+        int start = skipSpaces(line, from, to);
+        return startsWith(line, start, to, ADDRESS_PREFIX)
+                || startsWith(line, start, to, LOCAL_PREFIX)
+                || startsWith(line, start, to, SERVER_PREFIX);
+    }
+
+    @Override
+    public void scan(byte[] line, int from, int to, EntrySink sink) {
+        int start = skipSpaces(line, from, to);
+        int end = trimEnd(line, start, to);
+        boolean address = startsWith(line, start, end, ADDRESS_PREFIX);
+        if (address) {
+            start += ADDRESS_PREFIX.length;
+        } else if (startsWith(line, start, end, LOCAL_PREFIX)) {
+            start += LOCAL_PREFIX.length;
+        } else {
+            return;
+        }
+        int targetSlash = lastIndexOf(line, (byte) '/', start, end);
+        if (targetSlash < 0) {
+            return;
+        }
+        int targetFrom = targetSlash + 1;
+        boolean block = !address
+                || targetFrom == end
+                || end - targetFrom == 1 && line[targetFrom] == '#'
+                || isBlockingIp(line, targetFrom, end);
+        if (!block && !isIp(line, targetFrom, end)) {
+            return;
+        }
+        int domainFrom = start;
+        while (domainFrom < targetSlash) {
+            int domainTo = indexOf(line, (byte) '/', domainFrom, targetSlash);
+            if (domainTo < 0) {
+                domainTo = targetSlash;
+            }
+            int nameFrom = domainFrom < domainTo && line[domainFrom] == '.' ? domainFrom + 1 : domainFrom;
+            if (isDomainToken(line, nameFrom, domainTo) && !(domainTo - nameFrom == 1 && line[nameFrom] == '#')) {
+                toLowerCase(line, nameFrom, domainTo);
+                if (block) {
+                    sink.block(line, nameFrom, domainTo);
+                } else {
+                    sink.redirect(line, targetFrom, end, nameFrom, domainTo);
+                }
+            }
+            domainFrom = domainTo + 1;
+        }
+    }
+
+    private static int lastIndexOf(byte[] buffer, byte value, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.novibe.common.data_sources.format;
+
+import java.net.IDN;
+import java.nio.charset.StandardCharsets;
+
+import static com.novibe.common.data_sources.format.ByteTokens.isIpv4;
+import static com.novibe.common.data_sources.format.ByteTokens.isIpv6;
+
+/**
+ * Brings a scanned domain to the form accepted by DNS providers, or tells why it can not be accepted.
+ * ASCII domains, which are almost all of them, are checked and copied in one pass without allocation;
+ * only domains with non-ASCII bytes are decoded and converted to punycode with {@link IDN}.
+ */
+public final class DomainNormalizer {
+
+    public static final int MAX_DOMAIN_LENGTH = 253;
+    public static final int MAX_LABEL_LENGTH = 63;
+
+    public enum Rejection {
+        INVALID_CHARACTER("invalid character"),
+        UNDERSCORE("underscore"),
+        LABEL_LENGTH("empty or longer than 63 label"),
+        DOMAIN_LENGTH("longer than 253"),
+        IP_ADDRESS("IP address"),
+        SINGLE_LABEL("single label"),
+        NUMERIC_TLD("numeric top-level label"),
+        IDN("invalid IDN");
+
+        private static final Rejection[] VALUES = values();
+
+        private final String description;
+
+        Rejection(String description) {
+            this.description = description;
+        }
+
+        public String description() {
+            return description;
+        }
+
+        public int code() {
+            return -1 - ordinal();
+        }
+
+        public static Rejection of(int code) {
+            return VALUES[-1 - code];
+        }
+    }
+
+    private DomainNormalizer() {
+    }
+
+    /**
+     * Lower-cases the domain, strips a trailing dot and a port, converts IDN to punycode
+     * and checks RFC 1035 charset and lengths.
+     * The normalized domain is written to "out" starting at "outFrom", which needs room for {@link #MAX_DOMAIN_LENGTH} bytes.
+     *
+     * @return end index of the normalized domain in "out", or a negative {@link Rejection#code()}
+     */
+    public static int normalize(byte[] in, int from, int to, byte[] out, int outFrom) {
+        if (to > from && in[to - 1] == '.') {
+            to--;
+        }
+        if (to - from > MAX_DOMAIN_LENGTH) {
+            return Rejection.DOMAIN_LENGTH.code();
+        }
+        int position = outFrom;
+        int labelStart = outFrom;
+        boolean numericLabel = true;
+        for (int i = from; i < to; i++) {
+            byte b = in[i];
+            if (b == '.') {
+                if (!isValidLabel(out, labelStart, position)) {
+                    return labelCheck(out, labelStart, position);
+                }
+                out[position++] = b;
+                labelStart = position;
+                numericLabel = true;
+                continue;
+            }
+            if (b >= 'a' && b <= 'z' || b == '-') {
+                numericLabel = false;
+            } else if (b >= 'A' && b <= 'Z') {
+                b = (byte) (b + ('a' - 'A'));
+                numericLabel = false;
+            } else if (b == '_') {
+                return Rejection.UNDERSCORE.code();
+            } else if (b == ':' || b < 0) {
+                return normalizeRare(in, from, to, out, outFrom);
+            } else if (b < '0' || b > '9') {
+                return Rejection.INVALID_CHARACTER.code();
+            }
+            out[position++] = b;
+        }
+        if (!isValidLabel(out, labelStart, position)) {
+            return labelCheck(out, labelStart, position);
+        }
+        if (labelStart == outFrom) {
+            return Rejection.SINGLE_LABEL.code();
+        }
+        if (numericLabel) {
+            return isIpv4(in, from, to) ? Rejection.IP_ADDRESS.code() : Rejection.NUMERIC_TLD.code();
+        }
+        return position;
+    }
+
+    private static boolean isValidLabel(byte[] out, int from, int to) {
+        return to > from && to - from <= MAX_LABEL_LENGTH && out[from] != '-' && out[to - 1] != '-';
+    }
+
+    private static int labelCheck(byte[] out, int from, int to) {
+        return to == from || to - from > MAX_LABEL_LENGTH ? Rejection.LABEL_LENGTH.code() : Rejection.INVALID_CHARACTER.code();
+    }
+
+    /**
+     * Slow path for domains with a port, IPv6 addresses and non-ASCII domains.
+     */
+    private static int normalizeRare(byte[] in, int from, int to, byte[] out, int outFrom) {
+        int colon = -1;
+        int colons = 0;
+        boolean ascii = true;
+        for (int i = from; i < to; i++) {
+            if (in[i] == ':') {
+                colon = i;
+                colons++;
+            } else if (in[i] < 0) {
+                ascii = false;
+            }
+        }
+        if (colons > 1) {
+            return isIpv6(in, from, to) ? Rejection.IP_ADDRESS.code() : Rejection.INVALID_CHARACTER.code();
+        }
+        if (colons == 1) {
+            if (!isPort(in, colon + 1, to)) {
+                return Rejection.INVALID_CHARACTER.code();
+            }
+            to = colon;
+        }
+        if (ascii) {
+            return normalize(in, from, to, out, outFrom);
+        }
+        String unicode = new String(in, from, to - from, StandardCharsets.UTF_8);
+        byte[] punycode;
+        try {
+            punycode = IDN.toASCII(unicode, IDN.ALLOW_UNASSIGNED).getBytes(StandardCharsets.US_ASCII);
+        } catch (IllegalArgumentException e) {
+            return Rejection.IDN.code();
+        }
+        return normalize(punycode, 0, punycode.length, out, outFrom);
+    }
+
+    private static boolean isPort(byte[] in, int from, int to) {
+        if (from == to || to - from > 5) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (in[i] < '0' || in[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.novibe.common.data_sources.format;
+
+/**
+ * Receives entries found by a {@link SourceFormat} scanner.
+ * All ranges point into the scanned buffer, which is reused after the call returns,
+ * so a sink has to copy bytes it wants to keep.
+ */
+public interface EntrySink {
+
+    void block(byte[] buffer, int from, int to);
+
+    void redirect(byte[] buffer, int ipFrom, int ipTo, int domainFrom, int domainTo);
+
+    /**
+     * Wildcard entry "*.domain", the range points to the domain without the "*." prefix.
+     * Providers block subdomains of a blocked domain anyway, so by default it is a block of the domain itself.
+     */
+    default void blockSubdomains(byte[] buffer, int from, int to) {
+        block(buffer, from, to);
+    }
+
+    /**
+     * Domain excluded from blocking by the source, e.g. AdBlock "@@||domain^" exception.
+     */
+    default void allow(byte[] buffer, int from, int to) {
+    }
+
+}
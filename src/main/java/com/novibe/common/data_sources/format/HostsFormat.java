@@ -0,0 +1,68 @@
+package com.novibe.common.data_sources.format;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import static com.novibe.common.data_sources.format.ByteTokens.*;
+
+/**
+ * Hosts file: "IP host [host...] [# comment]".
+ * Lines with 0.0.0.0, 127.0.0.1 or loopback IPv6 are blocks, other IPs are redirects.
+ */
+@Component
+@Order(1)
+public class HostsFormat implements SourceFormat {
+
+    private static final byte[][] RESERVED_HOSTS = {
+            ascii("localhost"), ascii("localhost.localdomain"), ascii("local"), ascii("broadcasthost"),
+            ascii("ip6-localhost"), ascii("ip6-loopback"), ascii("ip6-localnet"), ascii("ip6-mcastprefix"),
+            ascii("ip6-allnodes"), ascii("ip6-allrouters"), ascii("ip6-allhosts"), ascii("0.0.0.0")
+    };
+
+    @Override
+    public String name() {
+        return "hosts";
+    }
+
+    @Override
+    public boolean recognizes(byte[] line, int from, int to) {
+        int end = commentStart(line, from, to, (byte) '#');
+        int ipFrom = skipSpaces(line, from, end);
+        int ipTo = tokenEnd(line, ipFrom, end);
+        return isIp(line, ipFrom, ipTo) && skipSpaces(line, ipTo, end) < end;
+    }
+
+    @Override
+    public void scan(byte[] line, int from, int to, EntrySink sink) {
+        int end = commentStart(line, from, to, (byte) '#');
+        int ipFrom = skipSpaces(line, from, end);
+        int ipTo = tokenEnd(line, ipFrom, end);
+        if (!isIp(line, ipFrom, ipTo)) {
+            return;
+        }
+        boolean block = isBlockingIp(line, ipFrom, ipTo);
+        int hostFrom;
+        int hostTo = ipTo;
+        while ((hostFrom = skipSpaces(line, hostTo, end)) < end) {
+            hostTo = tokenEnd(line, hostFrom, end);
+            if (isDomainToken(line, hostFrom, hostTo) && !isReserved(line, hostFrom, hostTo)) {
+                toLowerCase(line, hostFrom, hostTo);
+                if (block) {
+                    sink.block(line, hostFrom, hostTo);
+                } else {
+                    sink.redirect(line, ipFrom, ipTo, hostFrom, hostTo);
+                }
+            }
+        }
+    }
+
+    private static boolean isReserved(byte[] line, int from, int to) {
+        for (byte[] host : RESERVED_HOSTS) {
+            if (equalsIgnoreCase(line, from, to, host)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.novibe.common.data_sources.format;
+
+import com.novibe.common.data_sources.format.DomainNormalizer.Rejection;
+
+/**
+ * Passes only normalized domains to the delegate sink and reports the rejected ones.
+ * Holds a scratch buffer, so an instance must not be shared between threads.
+ */
+public final class NormalizingSink implements EntrySink {
+
+    private static final int IP_CAPACITY = 64;
+
+    private final EntrySink delegate;
+    private final RejectionReport report;
+    private final byte[] scratch = new byte[IP_CAPACITY + DomainNormalizer.MAX_DOMAIN_LENGTH];
+
+    public NormalizingSink(EntrySink delegate, RejectionReport report) {
+        this.delegate = delegate;
+        this.report = report;
+    }
+
+    @Override
+    public void block(byte[] buffer, int from, int to) {
+        int end = normalize(buffer, from, to, 0);
+        if (end >= 0) {
+            delegate.block(scratch, 0, end);
+        }
+    }
+
+    @Override
+    public void blockSubdomains(byte[] buffer, int from, int to) {
+        int end = normalize(buffer, from, to, 0);
+        if (end >= 0) {
+            delegate.blockSubdomains(scratch, 0, end);
+        }
+    }
+
+    @Override
+    public void allow(byte[] buffer, int from, int to) {
+        int end = normalize(buffer, from, to, 0);
+        if (end >= 0) {
+            delegate.allow(scratch, 0, end);
+        }
+    }
+
+    @Override
+    public void redirect(byte[] buffer, int ipFrom, int ipTo, int domainFrom, int domainTo) {
+        int ipLength = ipTo - ipFrom;
+        if (ipLength > IP_CAPACITY) {
+            return;
+        }
+        System.arraycopy(buffer, ipFrom, scratch, 0, ipLength);
+        int end = normalize(buffer, domainFrom, domainTo, IP_CAPACITY);
+        if (end >= 0) {
+            delegate.redirect(scratch, 0, ipLength, IP_CAPACITY, end);
+        }
+    }
+
+    private int normalize(byte[] buffer, int from, int to, int outFrom) {
+        int end = DomainNormalizer.normalize(buffer, from, to, scratch, outFrom);
+        if (end < 0) {
+            report.reject(Rejection.of(end), buffer, from, to);
+        }
+        return end;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.novibe.common.data_sources.format;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import static com.novibe.common.data_sources.format.ByteTokens.*;
+
+/**
+ * Plain list of domains, one per line, optionally with "*." prefix and an inline "#" comment.
+ * Checked last during auto-detection, since almost any single-token line fits.
+ */
+@Component
+@Order(Integer.MAX_VALUE)
+public class PlainFormat implements SourceFormat {
+
+    private static final byte[] WILDCARD = ascii("*.");
+
+    @Override
+    public String name() {
+        return "plain";
+    }
+
+    @Override
+    public boolean recognizes(byte[] line, int from, int to) {
+        int end = commentStart(line, from, to, (byte) '#');
+        int start = skipSpaces(line, from, end);
+        int tokenTo = tokenEnd(line, start, end);
+        if (startsWith(line, start, tokenTo, WILDCARD)) {
+            start += WILDCARD.length;
+        }
+        return skipSpaces(line, tokenTo, end) == end
+                && isDomainToken(line, start, tokenTo)
+                && indexOf(line, (byte) '.', start, tokenTo) > start;
+    }
+
+    @Override
+    public void scan(byte[] line, int from, int to, EntrySink sink) {
+        int end = commentStart(line, from, to, (byte) '#');
+        int start = skipSpaces(line, from, end);
+        int tokenTo = tokenEnd(line, start, end);
+        if (skipSpaces(line, tokenTo, end) != end) {
+            return;
+        }
+        boolean wildcard = startsWith(line, start, tokenTo, WILDCARD);
+        if (wildcard) {
+            start += WILDCARD.length;
+        }
+        if (isDomainToken(line, start, tokenTo) && !isIp(line, start, tokenTo)) {
+            toLowerCase(line, start, tokenTo);
+            if (wildcard) {
+                sink.blockSubdomains(line, start, tokenTo);
+            } else {
+                sink.block(line, start, tokenTo);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.novibe.common.data_sources.format;
+
+import com.novibe.common.data_sources.format.DomainNormalizer.Rejection;
+
+import java.nio.charset.StandardCharsets;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts entries of one source rejected by {@link DomainNormalizer}, keeping the first example per reason.
+ * Safe to share between sinks scanning ranges of the same source concurrently.
+ */
+public final class RejectionReport {
+
+    private final LongAdder[] counts = new LongAdder[Rejection.values().length];
+    private final AtomicReferenceArray<String> examples = new AtomicReferenceArray<>(counts.length);
+
+    public RejectionReport() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    void reject(Rejection rejection, byte[] buffer, int from, int to) {
+        counts[rejection.ordinal()].increment();
+        if (examples.get(rejection.ordinal()) == null) {
+            examples.compareAndSet(rejection.ordinal(), null, new String(buffer, from, to - from, StandardCharsets.UTF_8));
+        }
+    }
+
+    public long total() {
+        long total = 0;
+        for (LongAdder count : counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return counts per reason with an example, e.g. "3 underscore (a_b.com), 1 IP address (10.0.0.1)"
+     */
+    @Override
+    public String toString() {
+        StringJoiner summary = new StringJoiner(", ");
+        for (Rejection rejection : Rejection.values()) {
+            long count = counts[rejection.ordinal()].sum();
+            if (count > 0) {
+                summary.add("%s %s (%s)".formatted(count, rejection.description(), examples.get(rejection.ordinal())));
+            }
+        }
+        return summary.toString();
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.novibe.common.data_sources.format;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import static com.novibe.common.data_sources.format.ByteTokens.*;
+
+/**
+ * Response Policy Zone file: "name [ttl] [class] type rdata [; comment]".
+ * "CNAME ." (NXDOMAIN), "CNAME *." (NODATA) and "CNAME rpz-drop." are blocks, "A"/"AAAA" records are redirects,
+ * "CNAME rpz-passthru." is an exception. Wildcard owners "*.domain" are reported as subdomain blocks.
+ * Directives, SOA/NS and continuation lines are skipped.
+ * <p>
+ * Owner names are taken relative to the zone. Absolute owners ending with a dot are skipped: they either carry
+ * the zone origin, e.g. "ads.example.com.rpz.zone.", or lie outside the zone, which a DNS server ignores.
+ * The origin cannot be stripped, since ranges of a local file are scanned in parallel without the $ORIGIN lines before them.
+ */
+@Component
+@Order(4)
+public class RpzFormat implements SourceFormat {
+
+    private static final byte[] CLASS_IN = ascii("in");
+    private static final byte[] TYPE_CNAME = ascii("cname");
+    private static final byte[] TYPE_A = ascii("a");
+    private static final byte[] TYPE_AAAA = ascii("aaaa");
+    private static final byte[] TYPE_SOA = ascii("soa");
+    private static final byte[] TYPE_NS = ascii("ns");
+    private static final byte[] NXDOMAIN = ascii(".");
+    private static final byte[] NODATA = ascii("*.");
+    private static final byte[] DROP = ascii("rpz-drop.");
+    private static final byte[] PASSTHRU = ascii("rpz-passthru.");
+    private static final byte[] WILDCARD = ascii("*.");
+
+    @Override
+    public String name() {
+        return "rpz";
+    }
+
+    @Override
+    public boolean recognizes(byte[] line, int from, int to) {
+        if (line[from] == '$') {
+            return true;
+        }
+        int end = commentStart(line, from, to, (byte) ';');
+        int typeFrom = typeStart(line, from, end);
+        int typeTo = tokenEnd(line, typeFrom, end);
+        return typeFrom < end && (equalsIgnoreCase(line, typeFrom, typeTo, TYPE_CNAME)
+                || equalsIgnoreCase(line, typeFrom, typeTo, TYPE_SOA)
+                || equalsIgnoreCase(line, typeFrom, typeTo, TYPE_NS)
+                || equalsIgnoreCase(line, typeFrom, typeTo, TYPE_AAAA)
+                || equalsIgnoreCase(line, typeFrom, typeTo, TYPE_A) && skipSpaces(line, typeTo, end) < end);
+    }
+
+    @Override
+    public void scan(byte[] line, int from, int to, EntrySink sink) {
+        // Directives, origin shortcut and continuation lines of multi-line records
+        if (line[from] == '$' || line[from] == '@' || isSpace(line[from])) {
+            return;
+        }
+        int end = trimEnd(line, from, commentStart(line, from, to, (byte) ';'));
+        int nameFrom = from;
+        int nameTo = tokenEnd(line, nameFrom, end);
+        int typeFrom = typeStart(line, from, end);
+        int typeTo = tokenEnd(line, typeFrom, end);
+        int dataFrom = skipSpaces(line, typeTo, end);
+        int dataTo = tokenEnd(line, dataFrom, end);
+        if (typeFrom >= end || dataFrom >= end) {
+            return;
+        }
+
+        if (line[nameTo - 1] == '.') {
+            return;
+        }
+        boolean wildcard = startsWith(line, nameFrom, nameTo, WILDCARD);
+        if (wildcard) {
+            nameFrom += WILDCARD.length;
+        }
+        if (!isDomainToken(line, nameFrom, nameTo)) {
+            return;
+        }
+
+        if (equalsIgnoreCase(line, typeFrom, typeTo, TYPE_CNAME)) {
+            if (equalsIgnoreCase(line, dataFrom, dataTo, NXDOMAIN)
+                    || equalsIgnoreCase(line, dataFrom, dataTo, NODATA)
+                    || equalsIgnoreCase(line, dataFrom, dataTo, DROP)) {
+                toLowerCase(line, nameFrom, nameTo);
+                if (wildcard) {
+                    sink.blockSubdomains(line, nameFrom, nameTo);
+                } else {
+                    sink.block(line, nameFrom, nameTo);
+                }
+            } else if (equalsIgnoreCase(line, dataFrom, dataTo, PASSTHRU)) {
+                toLowerCase(line, nameFrom, nameTo);
+                sink.allow(line, nameFrom, nameTo);
+            }
+        } else if (!wildcard && (equalsIgnoreCase(line, typeFrom, typeTo, TYPE_A)
+                || equalsIgnoreCase(line, typeFrom, typeTo, TYPE_AAAA)) && isIp(line, dataFrom, dataTo)) {
+            toLowerCase(line, nameFrom, nameTo);
+            if (isBlockingIp(line, dataFrom, dataTo)) {
+                sink.block(line, nameFrom, nameTo);
+            } else {
+                sink.redirect(line, dataFrom, dataTo, nameFrom, nameTo);
+            }
+        }
+    }
+
+    /**
+     * Skips owner name, optional TTL and optional class.
+     */
+    private static int typeStart(byte[] line, int from, int end) {
+        int position = skipSpaces(line, tokenEnd(line, skipSpaces(line, from, end), end), end);
+        int tokenTo = tokenEnd(line, position, end);
+        if (position < tokenTo && isNumber(line, position, tokenTo)) {
+            position = skipSpaces(line, tokenTo, end);
+            tokenTo = tokenEnd(line, position, end);
+        }
+        if (equalsIgnoreCase(line, position, tokenTo, CLASS_IN)) {
+            position = skipSpaces(line, tokenTo, end);
+        }
+        return position;
+    }
+
+    private static boolean isNumber(byte[] line, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (line[i] < '0' || line[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
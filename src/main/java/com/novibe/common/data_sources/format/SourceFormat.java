@@ -0,0 +1,22 @@
+package com.novibe.common.data_sources.format;
+
+/**
+ * Single-pass byte scanner of one source format.
+ * Implementations work on raw line bytes and must not allocate per line.
+ */
+public interface SourceFormat {
+
+    String name();
+
+    /**
+     * Tells whether a non-empty line without line terminator looks like this format. Used for auto-detection.
+     */
+    boolean recognizes(byte[] line, int from, int to);
+
+    /**
+     * Scans a non-empty line without line terminator and reports found entries to the sink.
+     * Domains are lower-cased in place.
+     */
+    void scan(byte[] line, int from, int to, EntrySink sink);
+
+}
@@ -0,0 +1,121 @@
+package com.novibe.common.data_sources.format;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Registry of supported source formats.
+ * Detects the format of a source by its first lines and scans the source line by line over raw bytes.
+ */
+@Component
+@RequiredArgsConstructor
+public class SourceFormats {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int DETECTION_LINES = 200;
+
+    private final List<SourceFormat> formats;
+
+    /**
+     * Picks the format recognizing most of the meaningful lines in the sample. Comments and blank lines are ignored.
+     */
+    public SourceFormat detect(byte[] sample, int from, int to) {
+        int[] votes = new int[formats.size()];
+        int lines = 0;
+        int lineStart = from;
+        while (lineStart < to && lines < DETECTION_LINES) {
+            int lineEnd = ByteTokens.indexOf(sample, (byte) '\n', lineStart, to);
+            if (lineEnd < 0) {
+                lineEnd = to;
+            }
+            int start = ByteTokens.skipSpaces(sample, lineStart, lineEnd);
+            int end = ByteTokens.trimEnd(sample, start, lineEnd);
+            if (start < end && !isComment(sample[start])) {
+                lines++;
+                for (int i = 0; i < votes.length; i++) {
+                    if (formats.get(i).recognizes(sample, start, end)) {
+                        votes[i]++;
+                    }
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        int best = 0;
+        for (int i = 1; i < votes.length; i++) {
+            if (votes[i] > votes[best]) {
+                best = i;
+            }
+        }
+        return formats.get(best);
+    }
+
+    /**
+     * Reads the stream in chunks, detects its format by the first chunk and scans every line.
+     *
+     * @return detected format
+     */
+    public SourceFormat scan(InputStream in, EntrySink sink) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length = in.readNBytes(buffer, 0, buffer.length);
+        int start = hasBom(buffer, length) ? 3 : 0;
+        SourceFormat format = detect(buffer, start, length);
+        boolean eof = length < buffer.length;
+        while (true) {
+            int tail = scanLines(format, buffer, start, length, sink);
+            int tailLength = length - tail;
+            if (eof) {
+                if (tailLength > 0) {
+                    scanLine(format, buffer, tail, length, sink);
+                }
+                return format;
+            }
+            if (tail == 0 && tailLength == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            } else {
+                System.arraycopy(buffer, tail, buffer, 0, tailLength);
+            }
+            start = 0;
+            int read = in.read(buffer, tailLength, buffer.length - tailLength);
+            eof = read < 0;
+            length = tailLength + Math.max(read, 0);
+        }
+    }
+
+    /**
+     * Scans all complete lines of the range.
+     *
+     * @return index where the last incomplete line starts
+     */
+    public int scanLines(SourceFormat format, byte[] buffer, int from, int to, EntrySink sink) {
+        int lineStart = from;
+        int lineEnd;
+        while ((lineEnd = ByteTokens.indexOf(buffer, (byte) '\n', lineStart, to)) >= 0) {
+            scanLine(format, buffer, lineStart, lineEnd, sink);
+            lineStart = lineEnd + 1;
+        }
+        return lineStart;
+    }
+
+    public void scanLine(SourceFormat format, byte[] buffer, int from, int to, EntrySink sink) {
+        int start = ByteTokens.skipSpaces(buffer, from, to);
+        int end = ByteTokens.trimEnd(buffer, start, to);
+        if (start < end && buffer[start] != '#' && buffer[start] != '!') {
+            // Leading whitespace is kept, since it is meaningful for some formats, e.g. RPZ continuation lines
+            format.scan(buffer, from, end, sink);
+        }
+    }
+
+    private static boolean isComment(byte first) {
+        return first == '#' || first == '!' || first == ';';
+    }
+
+    private static boolean hasBom(byte[] buffer, int length) {
+        return length >= 3 && buffer[0] == (byte) 0xEF && buffer[1] == (byte) 0xBB && buffer[2] == (byte) 0xBF;
+    }
+
+}
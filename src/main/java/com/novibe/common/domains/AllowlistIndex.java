@@ -0,0 +1,73 @@
+package com.novibe.common.domains;
+
+/**
+ * Suffix-matching index of allowed domains.
+ * Exact entries match only the domain itself, "*.domain" entries match any subdomain of the domain.
+ * Lookups walk label boundaries of a candidate from the left, so a check costs one hash lookup per label
+ * and doesn't allocate.
+ */
+public class AllowlistIndex {
+
+    private final DomainSet exact = new DomainSet();
+    private final DomainSet wildcards = new DomainSet();
+    private boolean hasWildcards;
+
+    private AllowlistIndex() {
+    }
+
+    /**
+     * @param entries allowed domains, wildcards are prefixed with "*."
+     */
+    public static AllowlistIndex compile(DomainSet entries) {
+        AllowlistIndex index = new AllowlistIndex();
+        entries.parallelForEachBytes((buffer, offset, length) -> {
+            if (length > 2 && buffer[offset] == '*' && buffer[offset + 1] == '.') {
+                index.wildcards.add(buffer, offset + 2, length - 2);
+            } else {
+                index.exact.add(buffer, offset, length);
+            }
+        });
+        index.exact.freeze();
+        index.wildcards.freeze();
+        index.hasWildcards = !index.wildcards.isEmpty();
+        return index;
+    }
+
+    public boolean isEmpty() {
+        return exact.isEmpty() && wildcards.isEmpty();
+    }
+
+    public int size() {
+        return exact.size() + wildcards.size();
+    }
+
+    public boolean allows(byte[] buffer, int offset, int length) {
+        if (exact.contains(buffer, offset, length)) {
+            return true;
+        }
+        if (!hasWildcards) {
+            return false;
+        }
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (buffer[i] == '.' && wildcards.contains(buffer, i + 1, end - i - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return new set without allowed domains; candidates are checked in parallel
+     */
+    public DomainSet filter(DomainSet candidates) {
+        DomainSet result = new DomainSet();
+        candidates.parallelForEachBytes((buffer, offset, length) -> {
+            if (!allows(buffer, offset, length)) {
+                result.add(buffer, offset, length);
+            }
+        });
+        return result;
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.novibe.common.domains;
+
+import com.novibe.common.data_sources.HostsAllowListsLoader;
+import com.novibe.common.util.EnvParser;
+import com.novibe.common.util.Log;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+import static com.novibe.common.config.EnvironmentVariables.ALLOW;
+
+/**
+ * Stages applied to loaded block domains before they reach any provider.
+ */
+@Service
+@RequiredArgsConstructor
+public class BlocklistPipeline {
+
+    private final HostsAllowListsLoader allowListsLoader;
+    private final SubdomainPruner subdomainPruner;
+
+    public DomainSet prepare(DomainSet blocks) {
+        DomainSet allowed = excludeAllowed(blocks);
+        // Pruning goes after the allowlist, so children of an allowed parent are kept
+        return subdomainPruner.prune(allowed);
+    }
+
+    private DomainSet excludeAllowed(DomainSet blocks) {
+        List<String> allowSources = EnvParser.parse(ALLOW);
+        if (allowSources.isEmpty()) {
+            return blocks;
+        }
+        Log.step("Obtain allow lists from %s sources".formatted(allowSources.size()));
+        AllowlistIndex allowlist = AllowlistIndex.compile(allowListsLoader.fetchWebsites(allowSources));
+        DomainSet filtered = allowlist.filter(blocks);
+        Log.common("Allowlist of %s entries excluded %s of %s domains"
+                .formatted(allowlist.size(), blocks.size() - filtered.size(), blocks.size()));
+        return filtered;
+    }
+
+}
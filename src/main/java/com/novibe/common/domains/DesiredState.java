@@ -0,0 +1,22 @@
+package com.novibe.common.domains;
+
+import com.novibe.common.data_sources.HostsOverrideListsLoader.BypassRoute;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merged result of all sources: what a provider has to end up with.
+ *
+ * @param blocks domains to block, none of them is redirected
+ * @param routes redirect IP by domain, one per domain, ordered by domain
+ */
+public record DesiredState(DomainSet blocks, Map<String, String> routes) {
+
+    public List<BypassRoute> routeList() {
+        return routes.entrySet().stream()
+                .map(route -> new BypassRoute(route.getValue(), route.getKey()))
+                .toList();
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.novibe.common.domains;
+
+import com.novibe.common.data_sources.HostsOverrideListsLoader.BypassRoute;
+import com.novibe.common.util.Log;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import static com.novibe.common.config.EnvironmentVariables.CONFLICT_POLICY;
+import static java.util.Objects.isNull;
+
+/**
+ * Merges loaded sources into one {@link DesiredState}.
+ * Every route gets a priority of (source index, position in the source), lower wins, so the first source
+ * and the first line of a source take the domain whatever order parallel threads handle the routes in.
+ * A domain both blocked and redirected is resolved with CONFLICT_POLICY.
+ */
+@Service
+public class DesiredStateMerger {
+
+    private static final int POSITION_BITS = 40;
+
+    public enum ConflictPolicy {
+        /**
+         * Domain is only redirected, default
+         */
+        REDIRECT,
+        /**
+         * Domain is only blocked
+         */
+        BLOCK,
+        /**
+         * Domain is both blocked and redirected, priority is up to the provider
+         */
+        BOTH
+    }
+
+    private record RankedRoute(long priority, String ip) {
+    }
+
+    private final ConflictPolicy policy;
+
+    public DesiredStateMerger() {
+        this.policy = isNull(CONFLICT_POLICY) || CONFLICT_POLICY.isBlank()
+                ? ConflictPolicy.REDIRECT
+                : ConflictPolicy.valueOf(CONFLICT_POLICY.strip().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @param blocks       prepared domains to block
+     * @param routeSources routes of every redirect source, in the sources order
+     */
+    public DesiredState merge(DomainSet blocks, List<? extends Collection<BypassRoute>> routeSources) {
+        Map<String, String> routes = mergeRoutes(routeSources);
+        if (routes.isEmpty() || blocks.isEmpty() || policy == ConflictPolicy.BOTH) {
+            return new DesiredState(blocks, routes);
+        }
+
+        DomainSet conflicts = new DomainSet();
+        routes.keySet().parallelStream().filter(blocks::contains).forEach(conflicts::add);
+        if (conflicts.isEmpty()) {
+            return new DesiredState(blocks, routes);
+        }
+        Log.common("%s domains are both blocked and redirected, %s policy keeps them %s"
+                .formatted(conflicts.size(), policy, policy == ConflictPolicy.REDIRECT ? "redirected" : "blocked"));
+        if (policy == ConflictPolicy.REDIRECT) {
+            return new DesiredState(AllowlistIndex.compile(conflicts).filter(blocks), routes);
+        }
+        Map<String, String> unblocked = new LinkedHashMap<>();
+        routes.forEach((website, ip) -> {
+            if (!conflicts.contains(website)) {
+                unblocked.put(website, ip);
+            }
+        });
+        return new DesiredState(blocks, unblocked);
+    }
+
+    private Map<String, String> mergeRoutes(List<? extends Collection<BypassRoute>> routeSources) {
+        int total = routeSources.stream().mapToInt(Collection::size).sum();
+        ConcurrentHashMap<String, RankedRoute> merged = new ConcurrentHashMap<>(total);
+        LongAdder overridden = new LongAdder();
+        IntStream.range(0, routeSources.size()).parallel().forEach(source -> {
+            BypassRoute[] routes = routeSources.get(source).toArray(BypassRoute[]::new);
+            IntStream.range(0, routes.length).parallel().forEach(position -> {
+                RankedRoute candidate = new RankedRoute(((long) source << POSITION_BITS) | position, routes[position].ip());
+                merged.merge(routes[position].website(), candidate, (current, next) -> {
+                    if (!current.ip().equals(next.ip())) {
+                        overridden.increment();
+                    }
+                    return current.priority() < next.priority() ? current : next;
+                });
+            });
+        });
+
+        Map<String, String> routes = new LinkedHashMap<>(merged.size() * 4 / 3 + 1);
+        merged.entrySet().parallelStream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEachOrdered(route -> routes.put(route.getKey(), route.getValue().ip()));
+        if (overridden.sum() > 0) {
+            Log.common("%s routes were overridden by another IP of a higher priority source or line".formatted(overridden.sum()));
+        }
+        return routes;
+    }
+
+}
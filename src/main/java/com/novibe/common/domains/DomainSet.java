@@ -0,0 +1,354 @@
+package com.novibe.common.domains;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+
+/**
+ * Compact set of domains.
+ * Domains are kept as UTF-8 bytes packed into 1 MB slabs, indexed by an open-addressing table of 64-bit hashes,
+ * so millions of domains don't turn into millions of String objects.
+ * The set is split into independently locked segments, which allows concurrent insertion while parsing.
+ * Iteration is not synchronized and must not run concurrently with insertion.
+ * A frozen set is read-only and answers lookups without locking.
+ */
+public class DomainSet extends AbstractSet<String> {
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+
+    private static final int SLAB_BITS = 20;
+    private static final int SLAB_SIZE = 1 << SLAB_BITS;
+    private static final int LENGTH_BYTES = 2;
+    private static final int MAX_LENGTH = 0xFFFF;
+
+    private static final int TAG_SHIFT = 40;
+    private static final long POSITION_MASK = (1L << TAG_SHIFT) - 1;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private volatile boolean frozen;
+
+    @FunctionalInterface
+    public interface BytesConsumer {
+        void accept(byte[] buffer, int offset, int length);
+    }
+
+    public DomainSet() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash with a final avalanche step.
+     */
+    public static long hash(byte[] buffer, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h ^= buffer[i] & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public boolean add(String domain) {
+        byte[] bytes = domain.getBytes(StandardCharsets.UTF_8);
+        return add(bytes, 0, bytes.length);
+    }
+
+    public boolean add(byte[] buffer, int offset, int length) {
+        if (frozen) {
+            throw new IllegalStateException("DomainSet is frozen");
+        }
+        if (length == 0 || length > MAX_LENGTH) {
+            return false;
+        }
+        long hash = hash(buffer, offset, length);
+        return segmentOf(hash).add(buffer, offset, length, hash);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends String> domains) {
+        if (domains instanceof DomainSet other) {
+            boolean[] changed = {false};
+            other.forEachBytes((buffer, offset, length) -> changed[0] |= add(buffer, offset, length));
+            return changed[0];
+        }
+        return super.addAll(domains);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof String domain)) {
+            return false;
+        }
+        byte[] bytes = domain.getBytes(StandardCharsets.UTF_8);
+        return contains(bytes, 0, bytes.length);
+    }
+
+    public boolean contains(byte[] buffer, int offset, int length) {
+        if (length == 0 || length > MAX_LENGTH) {
+            return false;
+        }
+        long hash = hash(buffer, offset, length);
+        Segment segment = segmentOf(hash);
+        return frozen ? segment.lookup(buffer, offset, length, hash) : segment.contains(buffer, offset, length, hash);
+    }
+
+    /**
+     * Makes the set read-only, so lookups from many threads don't contend on segment locks.
+     */
+    public DomainSet freeze() {
+        frozen = true;
+        return this;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        if (frozen) {
+            throw new IllegalStateException("DomainSet is frozen");
+        }
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Visits every domain as a byte range without creating Strings.
+     */
+    public void forEachBytes(BytesConsumer consumer) {
+        for (Segment segment : segments) {
+            segment.forEachBytes(consumer);
+        }
+    }
+
+    /**
+     * Visits every domain as a byte range, processing segments in parallel. The consumer must be thread-safe.
+     */
+    public void parallelForEachBytes(BytesConsumer consumer) {
+        IntStream.range(0, SEGMENTS)
+                .parallel()
+                .forEach(i -> segments[i].forEachBytes(consumer));
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new DomainIterator();
+    }
+
+    /**
+     * Lazily cuts the set into lists of at most chunkSize domains. Strings are created only for the current chunk.
+     */
+    public Iterator<List<String>> chunks(int chunkSize) {
+        Iterator<String> domains = iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return domains.hasNext();
+            }
+
+            @Override
+            public List<String> next() {
+                if (!domains.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<String> chunk = new ArrayList<>(chunkSize);
+                while (chunk.size() < chunkSize && domains.hasNext()) {
+                    chunk.add(domains.next());
+                }
+                return chunk;
+            }
+        };
+    }
+
+    private Segment segmentOf(long hash) {
+        return segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))];
+    }
+
+    private static final class Segment {
+
+        private static final int INITIAL_TABLE_SIZE = 64;
+
+        private final List<byte[]> slabs = new ArrayList<>();
+        private int slabOffset = SLAB_SIZE;
+        private long[] table = new long[INITIAL_TABLE_SIZE];
+        private int size;
+
+        synchronized boolean add(byte[] buffer, int offset, int length, long hash) {
+            int mask = table.length - 1;
+            long tag = tagOf(hash);
+            int slot = (int) hash & mask;
+            long entry;
+            while ((entry = table[slot]) != 0) {
+                if (entry >>> TAG_SHIFT == tag && equalsAt((entry & POSITION_MASK) - 1, buffer, offset, length)) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            long position = append(buffer, offset, length);
+            table[slot] = tag << TAG_SHIFT | (position + 1);
+            if (++size * 2 > table.length) {
+                resize();
+            }
+            return true;
+        }
+
+        synchronized boolean contains(byte[] buffer, int offset, int length, long hash) {
+            return lookup(buffer, offset, length, hash);
+        }
+
+        boolean lookup(byte[] buffer, int offset, int length, long hash) {
+            int mask = table.length - 1;
+            long tag = tagOf(hash);
+            int slot = (int) hash & mask;
+            long entry;
+            while ((entry = table[slot]) != 0) {
+                if (entry >>> TAG_SHIFT == tag && equalsAt((entry & POSITION_MASK) - 1, buffer, offset, length)) {
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void clear() {
+            slabs.clear();
+            slabOffset = SLAB_SIZE;
+            table = new long[INITIAL_TABLE_SIZE];
+            size = 0;
+        }
+
+        void forEachBytes(BytesConsumer consumer) {
+            for (byte[] slab : slabs) {
+                int offset = 0;
+                int length;
+                while (offset + LENGTH_BYTES <= SLAB_SIZE && (length = lengthAt(slab, offset)) != 0) {
+                    consumer.accept(slab, offset + LENGTH_BYTES, length);
+                    offset += LENGTH_BYTES + length;
+                }
+            }
+        }
+
+        private long append(byte[] buffer, int offset, int length) {
+            if (slabOffset + LENGTH_BYTES + length > SLAB_SIZE) {
+                slabs.add(new byte[SLAB_SIZE]);
+                slabOffset = 0;
+            }
+            byte[] slab = slabs.getLast();
+            long position = ((long) (slabs.size() - 1) << SLAB_BITS) | slabOffset;
+            slab[slabOffset] = (byte) (length >>> 8);
+            slab[slabOffset + 1] = (byte) length;
+            System.arraycopy(buffer, offset, slab, slabOffset + LENGTH_BYTES, length);
+            slabOffset += LENGTH_BYTES + length;
+            return position;
+        }
+
+        private boolean equalsAt(long position, byte[] buffer, int offset, int length) {
+            byte[] slab = slabs.get((int) (position >>> SLAB_BITS));
+            int slabPosition = (int) (position & (SLAB_SIZE - 1));
+            if (lengthAt(slab, slabPosition) != length) {
+                return false;
+            }
+            int from = slabPosition + LENGTH_BYTES;
+            return Arrays.equals(slab, from, from + length, buffer, offset, offset + length);
+        }
+
+        private void resize() {
+            long[] newTable = new long[table.length * 2];
+            int mask = newTable.length - 1;
+            for (long entry : table) {
+                if (entry == 0) {
+                    continue;
+                }
+                long position = (entry & POSITION_MASK) - 1;
+                byte[] slab = slabs.get((int) (position >>> SLAB_BITS));
+                int slabPosition = (int) (position & (SLAB_SIZE - 1));
+                long hash = hash(slab, slabPosition + LENGTH_BYTES, lengthAt(slab, slabPosition));
+                int slot = (int) hash & mask;
+                while (newTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newTable[slot] = entry;
+            }
+            table = newTable;
+        }
+
+        private static long tagOf(long hash) {
+            return (hash >>> 16) & ((1L << (Long.SIZE - TAG_SHIFT)) - 1);
+        }
+
+        private static int lengthAt(byte[] slab, int offset) {
+            return (slab[offset] & 0xFF) << 8 | (slab[offset + 1] & 0xFF);
+        }
+    }
+
+    private final class DomainIterator implements Iterator<String> {
+
+        private int segment;
+        private int slab;
+        private int offset;
+        private int nextLength = -1;
+
+        @Override
+        public boolean hasNext() {
+            while (nextLength <= 0) {
+                if (segment >= SEGMENTS) {
+                    return false;
+                }
+                List<byte[]> slabs = segments[segment].slabs;
+                if (slab >= slabs.size()) {
+                    segment++;
+                    slab = 0;
+                    offset = 0;
+                    continue;
+                }
+                byte[] current = slabs.get(slab);
+                if (offset + LENGTH_BYTES > SLAB_SIZE || (nextLength = Segment.lengthAt(current, offset)) == 0) {
+                    nextLength = -1;
+                    slab++;
+                    offset = 0;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            byte[] current = segments[segment].slabs.get(slab);
+            String domain = new String(current, offset + LENGTH_BYTES, nextLength, StandardCharsets.UTF_8);
+            offset += LENGTH_BYTES + nextLength;
+            nextLength = -1;
+            return domain;
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.novibe.common.domains;
+
+import com.novibe.common.config.EnvironmentVariables;
+import com.novibe.common.util.Log;
+import org.jspecify.annotations.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HexFormat;
+import java.util.Optional;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Fingerprints of the last successful apply per provider account or profile, kept in CACHE_DIR.
+ * Without CACHE_DIR nothing is recorded and every run applies.
+ */
+@Component
+public class FingerprintStore {
+
+    private final @Nullable Path directory;
+
+    public FingerprintStore() {
+        String cacheDir = EnvironmentVariables.CACHE_DIR;
+        this.directory = isNull(cacheDir) || cacheDir.isBlank() ? null : Path.of(cacheDir.strip(), "state");
+    }
+
+    /**
+     * @param target provider and account or profile, e.g. "nextdns|abc123"
+     */
+    public Optional<String> lastApplied(String target) {
+        if (directory == null) {
+            return Optional.empty();
+        }
+        Path file = fileFor(target);
+        try {
+            return Files.isRegularFile(file) ? Optional.of(Files.readString(file).strip()) : Optional.empty();
+        } catch (IOException e) {
+            Log.fail("Ignoring broken fingerprint file %s: %s".formatted(file, e.getMessage()));
+            return Optional.empty();
+        }
+    }
+
+    public void record(String target, String fingerprint) {
+        if (directory == null) {
+            return;
+        }
+        Path file = fileFor(target);
+        try {
+            Files.createDirectories(directory);
+            Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                Files.writeString(tmp, fingerprint);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            Log.fail("Failed to record fingerprint of %s: %s".formatted(target, e.getMessage()));
+        }
+    }
+
+    private Path fileFor(String target) {
+        return directory.resolve(HexFormat.of().formatHex(target.getBytes(StandardCharsets.UTF_8)) + ".fingerprint");
+    }
+
+}
@@ -0,0 +1,390 @@
+package com.novibe.common.domains;
+
+import com.novibe.common.config.EnvironmentVariables;
+import com.novibe.common.util.Log;
+import org.jspecify.annotations.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Write-ahead journals of long uploads, per provider account or profile, kept in CACHE_DIR.
+ * Operations are recorded as planned before they are sent and as done once they succeed, so a run that
+ * was interrupted, by the job timeout or an exit, is resumed by the next run with the same plan and
+ * only the operations not done yet are sent again.
+ * <p>
+ * Records are appended and synced to disk in batches, and on JVM shutdown, so a crash of the whole machine
+ * repeats at most the last batch. Every record has a checksum, a torn tail is cut off when the journal is opened.
+ */
+@Component
+public class OperationJournal {
+
+    private static final int MAGIC = 0x444E534A;
+    private static final int FORMAT_VERSION = 1;
+    private static final byte PLANNED = 'P';
+    private static final byte DONE = 'D';
+    private static final int SYNC_BATCH = 256;
+    private static final Duration SYNC_INTERVAL = Duration.ofSeconds(1);
+
+    private final @Nullable Path directory;
+    private final Set<Journal> open = ConcurrentHashMap.newKeySet();
+
+    public OperationJournal() {
+        String cacheDir = EnvironmentVariables.CACHE_DIR;
+        this.directory = isNull(cacheDir) || cacheDir.isBlank() ? null : Path.of(cacheDir.strip(), "journal");
+        // System.exit and SIGTERM of a cancelled job still run hooks, so the last records are kept
+        Runtime.getRuntime().addShutdownHook(Thread.ofPlatform().unstarted(() -> open.forEach(Journal::sync)));
+    }
+
+    /**
+     * Opens the journal of the target. A journal left by an interrupted run is resumed only if it was written
+     * for the same plan, otherwise it is dropped and a new one is started.
+     *
+     * @param target provider, kind of upload and account or profile, e.g. "nextdns-deny|abc123"
+     * @param plan   fingerprint of what the run applies, see {@link StateFingerprint}
+     */
+    public Journal open(String target, String plan) {
+        if (directory == null) {
+            return new Journal(target, null, false);
+        }
+        Path file = directory.resolve(HexFormat.of().formatHex(target.getBytes(StandardCharsets.UTF_8)) + ".journal");
+        try {
+            Files.createDirectories(directory);
+            if (Files.isRegularFile(file)) {
+                Journal resumed = resume(target, plan, file);
+                if (resumed != null) {
+                    open.add(resumed);
+                    return resumed;
+                }
+            }
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(header);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(target);
+            out.writeUTF(plan);
+            channel.write(ByteBuffer.wrap(header.toByteArray()));
+            channel.force(false);
+            Journal journal = new Journal(target, new Storage(file, channel), false);
+            open.add(journal);
+            return journal;
+        } catch (IOException e) {
+            Log.fail("Failed to open journal of %s, progress of this run is not kept: %s".formatted(target, e.getMessage()));
+            return new Journal(target, null, false);
+        }
+    }
+
+    /**
+     * @return null if the journal was written for another target or plan, or cannot be read
+     */
+    private @Nullable Journal resume(String target, String plan, Path file) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+        DataInputStream in = new DataInputStream(bytes);
+        Journal journal = new Journal(target, null, true);
+        long valid;
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !target.equals(in.readUTF())) {
+                return null;
+            }
+            if (!plan.equals(in.readUTF())) {
+                Log.common("Plan of %s changed since the interrupted run, its journal is dropped".formatted(target));
+                return null;
+            }
+            valid = content.length - bytes.available();
+            for (Record record = Record.read(in); record != null; record = Record.read(in)) {
+                journal.apply(record);
+                valid = content.length - bytes.available();
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        // A record torn by the interruption is cut off, new records follow the last whole one
+        channel.truncate(valid);
+        channel.position(valid);
+        journal.storage = new Storage(file, channel);
+        Log.common("Resuming interrupted upload of %s: %s of %s planned operations are done"
+                .formatted(target, journal.doneCount(), journal.plannedCount()));
+        return journal;
+    }
+
+    private record Storage(Path file, FileChannel channel) {
+    }
+
+    /**
+     * One planned or done operation. On disk: length, payload, CRC32 of the payload.
+     */
+    private record Record(byte type, String phase, String operation, String result) {
+
+        private void write(DataOutputStream out) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeByte(type);
+            payload.writeUTF(phase);
+            payload.writeUTF(operation);
+            payload.writeUTF(result);
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.writeInt((int) crc.getValue());
+        }
+
+        /**
+         * @return null at the end of the journal or at a torn or corrupted record
+         */
+        private static @Nullable Record read(DataInputStream in) throws IOException {
+            try {
+                int length = in.readInt();
+                if (length <= 0 || length > 1 << 20) {
+                    return null;
+                }
+                byte[] bytes = in.readNBytes(length);
+                if (bytes.length < length) {
+                    return null;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if (in.readInt() != (int) crc.getValue()) {
+                    return null;
+                }
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+                return new Record(payload.readByte(), payload.readUTF(), payload.readUTF(), payload.readUTF());
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Journal of one upload. Operations are strings unique within their phase, e.g. domains to add.
+     * Safe to record completions from several threads.
+     */
+    public final class Journal implements AutoCloseable {
+
+        private final String target;
+        private final boolean resumed;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, Set<String>> planned = new HashMap<>();
+        private final Map<String, Map<String, String>> done = new HashMap<>();
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(buffer);
+        private @Nullable Storage storage;
+        private int buffered;
+        private long syncedAt = System.nanoTime();
+
+        private Journal(String target, @Nullable Storage storage, boolean resumed) {
+            this.target = target;
+            this.storage = storage;
+            this.resumed = resumed;
+        }
+
+        /**
+         * @return true if the journal continues an interrupted run with the same plan
+         */
+        public boolean resumed() {
+            return resumed;
+        }
+
+        /**
+         * Operations of the phase still to send. The first time a phase is seen, all operations are recorded
+         * as planned and returned. When resuming, operations done by the interrupted run are left out,
+         * and so are operations it planned that the current state no longer calls for. Operations it did not
+         * plan, e.g. for entries changed by hand since, are recorded as planned and returned too.
+         */
+        public List<String> pending(String phase, Collection<String> operations) {
+            lock.lock();
+            try {
+                Set<String> recorded = planned.get(phase);
+                if (recorded == null) {
+                    Set<String> plan = planned.computeIfAbsent(phase, key -> new HashSet<>());
+                    for (String operation : operations) {
+                        if (plan.add(operation)) {
+                            append(new Record(PLANNED, phase, operation, ""));
+                        }
+                    }
+                    // The plan is what later records refer to, so it reaches the disk before any operation is sent
+                    flush();
+                    return List.copyOf(operations);
+                }
+                Map<String, String> completed = done.getOrDefault(phase, Map.of());
+                List<String> pending = new ArrayList<>();
+                int added = 0;
+                for (String operation : operations) {
+                    if (recorded.add(operation)) {
+                        append(new Record(PLANNED, phase, operation, ""));
+                        added++;
+                        pending.add(operation);
+                    } else if (!completed.containsKey(operation)) {
+                        pending.add(operation);
+                    }
+                }
+                if (added > 0) {
+                    flush();
+                }
+                Log.common("%s: %s operations to %s are left from the interrupted run, %s of them are new"
+                        .formatted(target, pending.size(), phase, added));
+                return pending;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return results of operations of the phase done so far, by operation
+         */
+        public Map<String, String> completed(String phase) {
+            lock.lock();
+            try {
+                return Map.copyOf(done.getOrDefault(phase, Map.of()));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void done(String phase, String operation) {
+            done(phase, operation, "");
+        }
+
+        /**
+         * @param result what the operation produced and a resumed run needs, e.g. id of a created list
+         */
+        public void done(String phase, String operation, String result) {
+            lock.lock();
+            try {
+                done.computeIfAbsent(phase, key -> new HashMap<>()).put(operation, result);
+                append(new Record(DONE, phase, operation, result));
+                if (buffered >= SYNC_BATCH || System.nanoTime() - syncedAt >= SYNC_INTERVAL.toNanos()) {
+                    flush();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Every planned operation is applied, the journal is removed
+         */
+        public void finish() {
+            lock.lock();
+            try {
+                if (storage == null) {
+                    return;
+                }
+                open.remove(this);
+                storage.channel().close();
+                Files.deleteIfExists(storage.file());
+            } catch (IOException e) {
+                Log.fail("Failed to remove journal of %s: %s".formatted(target, e.getMessage()));
+            } finally {
+                storage = null;
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Keeps the journal for the next run, unless {@link #finish()} was called
+         */
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (storage == null) {
+                    return;
+                }
+                flush();
+                open.remove(this);
+                storage.channel().close();
+            } catch (IOException e) {
+                Log.fail("Failed to close journal of %s: %s".formatted(target, e.getMessage()));
+            } finally {
+                storage = null;
+                lock.unlock();
+            }
+        }
+
+        private void sync() {
+            lock.lock();
+            try {
+                flush();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void apply(Record record) {
+            if (record.type() == PLANNED) {
+                planned.computeIfAbsent(record.phase(), key -> new HashSet<>()).add(record.operation());
+            } else if (record.type() == DONE) {
+                done.computeIfAbsent(record.phase(), key -> new HashMap<>()).put(record.operation(), record.result());
+            }
+        }
+
+        private void append(Record record) {
+            if (storage == null) {
+                return;
+            }
+            try {
+                record.write(out);
+                buffered++;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void flush() {
+            if (storage == null || buffer.size() == 0) {
+                return;
+            }
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+                while (bytes.hasRemaining()) {
+                    storage.channel().write(bytes);
+                }
+                storage.channel().force(false);
+            } catch (IOException e) {
+                Log.fail("Failed to write journal of %s, progress of this run may be repeated: %s".formatted(target, e.getMessage()));
+            }
+            buffer.reset();
+            buffered = 0;
+            syncedAt = System.nanoTime();
+        }
+
+        private int doneCount() {
+            return done.values().stream().mapToInt(Map::size).sum();
+        }
+
+        private int plannedCount() {
+            return planned.values().stream().mapToInt(Set::size).sum();
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.novibe.common.domains;
+
+import com.novibe.common.config.EnvironmentVariables;
+import com.novibe.common.util.Log;
+import lombok.Cleanup;
+import org.jspecify.annotations.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Snapshots of the remote entries the script itself wrote, per provider account or profile, kept in CACHE_DIR.
+ * A snapshot is written only after a successful apply and is checked by the caller before use,
+ * so a reconciliation can skip reading the full remote state.
+ */
+@Component
+public class SnapshotStore {
+
+    private static final int MAGIC = 0x444E5353;
+    private static final int FORMAT_VERSION = 1;
+
+    private final @Nullable Path directory;
+
+    public SnapshotStore() {
+        String cacheDir = EnvironmentVariables.CACHE_DIR;
+        this.directory = isNull(cacheDir) || cacheDir.isBlank() ? null : Path.of(cacheDir.strip(), "snapshots");
+    }
+
+    public interface EntryWriter<T> {
+        void write(DataOutput out, T entry) throws IOException;
+    }
+
+    public interface EntryReader<T> {
+        T read(DataInput in) throws IOException;
+    }
+
+    /**
+     * @param savedAt time the snapshot was written
+     */
+    public record Snapshot<T>(Instant savedAt, List<T> entries) {
+
+        public boolean isOlderThan(Duration maxAge) {
+            return savedAt.plus(maxAge).isBefore(Instant.now());
+        }
+    }
+
+    /**
+     * @param target provider, kind of entries and account or profile, e.g. "nextdns-deny|abc123"
+     */
+    public <T> Optional<Snapshot<T>> read(String target, EntryReader<T> reader) {
+        if (directory == null) {
+            return Optional.empty();
+        }
+        Path file = fileFor(target);
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try {
+            @Cleanup DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 1 << 16)));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !target.equals(in.readUTF())) {
+                return Optional.empty();
+            }
+            Instant savedAt = Instant.ofEpochMilli(in.readLong());
+            int count = in.readInt();
+            List<T> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(reader.read(in));
+            }
+            return Optional.of(new Snapshot<>(savedAt, entries));
+        } catch (IOException e) {
+            Log.fail("Ignoring broken snapshot file %s: %s".formatted(file, e.getMessage()));
+            return Optional.empty();
+        }
+    }
+
+    public <T> void write(String target, Collection<T> entries, EntryWriter<T> writer) {
+        if (directory == null) {
+            return;
+        }
+        Path file = fileFor(target);
+        try {
+            Files.createDirectories(directory);
+            Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp), 1 << 16)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeUTF(target);
+                    out.writeLong(System.currentTimeMillis());
+                    out.writeInt(entries.size());
+                    for (T entry : entries) {
+                        writer.write(out, entry);
+                    }
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            Log.fail("Failed to write snapshot of %s: %s".formatted(target, e.getMessage()));
+        }
+    }
+
+    /**
+     * Drops the snapshot before the remote state changes, so an interrupted apply leaves none behind
+     */
+    public void invalidate(String target) {
+        if (directory == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(fileFor(target));
+        } catch (IOException e) {
+            Log.fail("Failed to remove snapshot of %s: %s".formatted(target, e.getMessage()));
+        }
+    }
+
+    private Path fileFor(String target) {
+        return directory.resolve(HexFormat.of().formatHex(target.getBytes(StandardCharsets.UTF_8)) + ".bin");
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.novibe.common.domains;
+
+import lombok.SneakyThrows;
+import lombok.experimental.UtilityClass;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content hash of what a run is about to apply.
+ * Domains are combined with order-independent sums of their hashes, so the set order and parallel
+ * iteration do not matter, and the result goes through SHA-256 together with the settings.
+ */
+@UtilityClass
+public class StateFingerprint {
+
+    private static final int VERSION = 2;
+
+    /**
+     * @param settings everything besides domains that changes what is applied: account, EXTERNAL_IP, limits
+     */
+    public String of(DesiredState desired, Map<String, String> settings) {
+        return of(contentHash(desired), settings);
+    }
+
+    /**
+     * Fingerprint of content hashed once for several targets, e.g. every NextDNS profile
+     *
+     * @param contentHash {@link #contentHash(DesiredState)} of the desired state
+     */
+    @SneakyThrows
+    public String of(String contentHash, Map<String, String> settings) {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(("v" + VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+        new TreeMap<>(settings).forEach((key, value) ->
+                digest.update((key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8)));
+        digest.update(contentHash.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Hash of the domains to block and to redirect, the costly part of a fingerprint
+     */
+    @SneakyThrows
+    public String contentHash(DesiredState desired) {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        LongAdder sum = new LongAdder();
+        LongAdder mixedSum = new LongAdder();
+        desired.blocks().parallelForEachBytes((buffer, offset, length) -> {
+            long hash = DomainSet.hash(buffer, offset, length);
+            sum.add(hash);
+            mixedSum.add(mix(hash));
+        });
+        update(digest, desired.blocks().size(), sum.sum(), mixedSum.sum());
+
+        long routeSum = 0;
+        long routeMixedSum = 0;
+        for (Map.Entry<String, String> route : desired.routes().entrySet()) {
+            byte[] bytes = (route.getKey() + " " + route.getValue()).getBytes(StandardCharsets.UTF_8);
+            long hash = DomainSet.hash(bytes, 0, bytes.length);
+            routeSum += hash;
+            routeMixedSum += mix(hash);
+        }
+        update(digest, desired.routes().size(), routeSum, routeMixedSum);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void update(MessageDigest digest, int count, long sum, long mixedSum) {
+        digest.update(ByteBuffer.allocate(Integer.BYTES + 2 * Long.BYTES).putInt(count).putLong(sum).putLong(mixedSum).array());
+    }
+
+    /**
+     * Second independent sum, so two sets rarely collide on both
+     */
+    private long mix(long hash) {
+        hash = Long.rotateLeft(hash, 29) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.novibe.common.domains;
+
+import com.novibe.common.config.EnvironmentVariables;
+import com.novibe.common.util.Log;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Drops blocked domains already covered by a blocked ancestor.
+ * Both Cloudflare lists and NextDNS denylist match subdomains, so such entries only waste list slots and API calls.
+ * Ancestors are looked up label by label from the right, i.e. the set itself serves as a reversed-label suffix trie
+ * without materializing any nodes.
+ * Optionally a parent domain is promoted to the blocklist once it has PROMOTE_PARENT_THRESHOLD blocked children.
+ */
+@Service
+public class SubdomainPruner {
+
+    private final int promoteThreshold;
+
+    public SubdomainPruner() {
+        String threshold = EnvironmentVariables.PROMOTE_PARENT_THRESHOLD;
+        this.promoteThreshold = isNull(threshold) || threshold.isBlank() ? 0 : Integer.parseInt(threshold.strip());
+    }
+
+    public DomainSet prune(DomainSet domains) {
+        DomainSet blocked = domains;
+        if (promoteThreshold > 0) {
+            DomainSet promoted = promoteParents(domains);
+            if (!promoted.isEmpty()) {
+                Log.common("Promoted %s parent domains having at least %s blocked children"
+                        .formatted(promoted.size(), promoteThreshold));
+                blocked = new DomainSet();
+                blocked.addAll(domains);
+                blocked.addAll(promoted);
+            }
+        }
+        DomainSet lookup = blocked.freeze();
+        DomainSet pruned = new DomainSet();
+        lookup.parallelForEachBytes((buffer, offset, length) -> {
+            if (!hasBlockedAncestor(lookup, buffer, offset, length)) {
+                pruned.add(buffer, offset, length);
+            }
+        });
+        Log.common("Subdomain pruning: %s of %s domains are covered by a blocked parent"
+                .formatted(lookup.size() - pruned.size(), lookup.size()));
+        return pruned;
+    }
+
+    private DomainSet promoteParents(DomainSet domains) {
+        Map<String, LongAdder> childrenCount = new ConcurrentHashMap<>();
+        domains.parallelForEachBytes((buffer, offset, length) -> {
+            int dot = indexOf(buffer, (byte) '.', offset, offset + length);
+            if (dot < 0) {
+                return;
+            }
+            int parentOffset = dot + 1;
+            int parentLength = offset + length - parentOffset;
+            if (isPromotable(buffer, parentOffset, parentLength)) {
+                String parent = new String(buffer, parentOffset, parentLength, StandardCharsets.UTF_8);
+                childrenCount.computeIfAbsent(parent, key -> new LongAdder()).increment();
+            }
+        });
+        DomainSet promoted = new DomainSet();
+        childrenCount.forEach((parent, count) -> {
+            if (count.sum() >= promoteThreshold) {
+                promoted.add(parent);
+            }
+        });
+        return promoted;
+    }
+
+    private static boolean hasBlockedAncestor(DomainSet blocked, byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (buffer[i] == '.' && blocked.contains(buffer, i + 1, end - i - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Without a public suffix list, parents like "com" or "co.uk" are recognized heuristically and never promoted.
+     */
+    private static boolean isPromotable(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        int firstDot = indexOf(buffer, (byte) '.', offset, end);
+        if (firstDot < 0) {
+            return false;
+        }
+        int secondDot = indexOf(buffer, (byte) '.', firstDot + 1, end);
+        if (secondDot >= 0) {
+            return true;
+        }
+        int tldLength = end - firstDot - 1;
+        int labelLength = firstDot - offset;
+        return !(tldLength == 2 && labelLength <= 3);
+    }
+
+    private static int indexOf(byte[] buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
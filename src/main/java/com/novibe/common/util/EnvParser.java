@@ -12,4 +12,9 @@ public class EnvParser {
         if (envValue.isEmpty()) return List.of();
         return Arrays.asList(envValue.strip().split(","));
     }
+
+    public static int parseInt(String envValue, int defaultValue) {
+        if (isNull(envValue) || envValue.isBlank()) return defaultValue;
+        return Integer.parseInt(envValue.strip());
+    }
 }
@@ -1,28 +1,131 @@
 package com.novibe.common.util;
 
+import com.novibe.common.config.EnvironmentVariables;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Console log. Lines are handed over to a background writer, so logging never blocks on terminal output.
+ * LOG_LEVEL filters lines (DEBUG, INFO or ERROR, INFO by default), LOG_FILE additionally writes them as JSON lines.
+ */
 public class Log {
 
+    public enum Level {
+        DEBUG, INFO, ERROR
+    }
+
+    enum Kind {
+        GLOBAL(Level.INFO),
+        STEP(Level.INFO),
+        IO(Level.INFO),
+        FAIL(Level.ERROR),
+        COMMON(Level.INFO),
+        PROGRESS(Level.INFO),
+        DEBUG(Level.DEBUG);
+
+        private final Level level;
+
+        Kind(Level level) {
+            this.level = level;
+        }
+
+        Level level() {
+            return level;
+        }
+
+        String console(String msg) {
+            return switch (this) {
+                case GLOBAL -> Color.YELLOW_BOLD + "\n#==#==# " + Color.GREEN_BOLD + msg + Color.YELLOW_BOLD + " #==#==#\n" + Color.RESET + "\n";
+                case STEP -> Color.BLUE_BOLD + "\n--- " + msg + Color.RESET + "\n";
+                case IO -> Color.YELLOW + ">>> " + Color.PURPLE + msg + Color.RESET + "\n";
+                case FAIL -> "\n" + Color.YELLOW_BOLD + "!!!" + Color.RED + " " + msg + Color.RESET + "\n";
+                case COMMON, DEBUG -> msg + "\n";
+                case PROGRESS -> msg + "\r";
+            };
+        }
+    }
+
+    private static final Level LEVEL = parseLevel(EnvironmentVariables.LOG_LEVEL);
+
+    private static final LogWriter WRITER = new LogWriter(EnvironmentVariables.LOG_FILE);
+
+    static {
+        // Reported only once the writer exists, an unknown level must not stop the run
+        if (isUnknownLevel(EnvironmentVariables.LOG_LEVEL)) {
+            fail("Unknown LOG_LEVEL %s, expected DEBUG, INFO or ERROR. Logging at INFO".formatted(EnvironmentVariables.LOG_LEVEL));
+        }
+    }
+
     public static void global(String msg) {
-        IO.println(Color.YELLOW_BOLD + "\n#==#==# " + Color.GREEN_BOLD + msg + Color.YELLOW_BOLD + " #==#==#\n" + Color.RESET);
+        write(Kind.GLOBAL, msg);
     }
 
     public static void step(String msg) {
-        IO.println(Color.BLUE_BOLD + "\n--- " + msg + Color.RESET);
+        write(Kind.STEP, msg);
     }
 
     public static void io(String msg) {
-        IO.println(Color.YELLOW + ">>> " + Color.PURPLE + msg + Color.RESET);
+        write(Kind.IO, msg);
     }
 
     public static void fail(String msg) {
-        IO.println("\n" + Color.YELLOW_BOLD + "!!!" + Color.RED + " " + msg + Color.RESET);
+        write(Kind.FAIL, msg);
     }
 
     public static void common(String msg) {
-        IO.println(msg);
+        write(Kind.COMMON, msg);
     }
+
+    /**
+     * Per-entry details, off unless LOG_LEVEL=DEBUG. The message is built only when it is going to be written.
+     */
+    public static void debug(Supplier<String> msg) {
+        if (isEnabled(Level.DEBUG)) {
+            write(Kind.DEBUG, msg.get());
+        }
+    }
+
+    /**
+     * Progress counter overwriting itself in the console. Only the latest value is printed, a few times per second.
+     */
     public static void progress(String msg) {
-        IO.print(msg + "\r");
+        if (isEnabled(Kind.PROGRESS.level())) {
+            WRITER.progress(msg);
+        }
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    /**
+     * Waits until all lines logged so far are written. Also done on JVM shutdown.
+     */
+    public static void flush() {
+        WRITER.flush();
+    }
+
+    private static void write(Kind kind, String msg) {
+        if (isEnabled(kind.level())) {
+            WRITER.write(kind, msg);
+        }
+    }
+
+    private static Level parseLevel(String level) {
+        if (level == null || level.isBlank() || isUnknownLevel(level)) {
+            return Level.INFO;
+        }
+        return Level.valueOf(level.trim().toUpperCase(Locale.ROOT));
+    }
+
+    private static boolean isUnknownLevel(String level) {
+        if (level == null || level.isBlank()) {
+            return false;
+        }
+        String name = level.trim().toUpperCase(Locale.ROOT);
+        return Arrays.stream(Level.values()).noneMatch(known -> known.name().equals(name));
     }
 
     private static class Color {
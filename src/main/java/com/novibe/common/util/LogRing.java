@@ -0,0 +1,87 @@
+package com.novibe.common.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring for many producers and a single consumer.
+ * Every slot carries a sequence number: a producer claims a position with CAS on the tail
+ * and publishes the slot by advancing its sequence, the consumer frees the slot the same way.
+ */
+final class LogRing<E> {
+
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    LogRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        items = new Object[capacity];
+        sequences = new AtomicLongArray(capacity);
+        mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the ring is full
+     */
+    boolean offer(E item) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long distance = sequences.getAcquire(index) - position;
+            if (distance == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items[index] = item;
+                    sequences.setRelease(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (distance < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Must be called from the consumer thread only.
+     *
+     * @return next item, or null if nothing is published yet
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long position = head;
+        int index = (int) (position & mask);
+        if (sequences.getAcquire(index) != position + 1) {
+            return null;
+        }
+        E item = (E) items[index];
+        items[index] = null;
+        sequences.setRelease(index, position + items.length);
+        head = position + 1;
+        return item;
+    }
+
+    /**
+     * @return count of positions claimed by producers so far
+     */
+    long produced() {
+        return tail.get();
+    }
+
+    /**
+     * @return count of items taken by the consumer so far
+     */
+    long consumed() {
+        return head;
+    }
+
+}
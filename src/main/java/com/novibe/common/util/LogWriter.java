@@ -0,0 +1,165 @@
+package com.novibe.common.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single thread writing log lines to the console and, optionally, to a JSON-lines file.
+ * Callers only publish lines into a {@link LogRing}, so they never wait for the console.
+ * Progress is not queued: only the latest value is kept and printed at most every {@link #PROGRESS_INTERVAL_NANOS}.
+ */
+final class LogWriter {
+
+    private static final int CAPACITY = 1 << 14;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    record Line(Log.Kind kind, String message, long timestamp) {
+    }
+
+    private final LogRing<Line> ring = new LogRing<>(CAPACITY);
+    private final AtomicReference<Line> pendingProgress = new AtomicReference<>();
+    private final PrintStream console = System.out;
+    private final StringBuilder consoleBatch = new StringBuilder();
+    private final StringBuilder jsonBatch = new StringBuilder();
+    private final Thread thread;
+    private BufferedWriter file;
+    private long lastProgressAt;
+    private volatile long written;
+    private volatile boolean parked;
+    private volatile boolean flushRequested;
+
+    LogWriter(String logFile) {
+        if (logFile != null && !logFile.isBlank()) {
+            try {
+                file = Files.newBufferedWriter(Path.of(logFile), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                console.println("Log file %s is not available: %s".formatted(logFile, e.getMessage()));
+            }
+        }
+        lastProgressAt = System.nanoTime() - PROGRESS_INTERVAL_NANOS;
+        thread = Thread.ofPlatform().daemon().name("log-writer").start(this::run);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+    }
+
+    void write(Log.Kind kind, String message) {
+        Line line = new Line(kind, message, System.currentTimeMillis());
+        while (!ring.offer(line)) {
+            // Ring is full: let the writer catch up instead of dropping lines
+            LockSupport.unpark(thread);
+            Thread.yield();
+        }
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    void progress(String message) {
+        pendingProgress.set(new Line(Log.Kind.PROGRESS, message, System.currentTimeMillis()));
+    }
+
+    /**
+     * Waits until every line published before the call, and the latest progress, are written.
+     */
+    void flush() {
+        long target = ring.produced();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        flushRequested = true;
+        LockSupport.unpark(thread);
+        while ((written < target || pendingProgress.get() != null)
+                && thread.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        flushRequested = false;
+    }
+
+    private void run() {
+        while (true) {
+            Line line;
+            int batched = 0;
+            while (batched++ < CAPACITY && (line = ring.poll()) != null) {
+                if (pendingProgress.get() != null) {
+                    // Latest progress goes before the next line, so a finished counter is never lost
+                    append(pendingProgress.getAndSet(null));
+                }
+                append(line);
+            }
+            long now = System.nanoTime();
+            if (pendingProgress.get() != null && (flushRequested || now - lastProgressAt >= PROGRESS_INTERVAL_NANOS)) {
+                append(pendingProgress.getAndSet(null));
+                lastProgressAt = now;
+            }
+            writeBatch();
+            written = ring.consumed();
+            parked = true;
+            if (ring.consumed() == ring.produced() && !flushRequested) {
+                LockSupport.parkNanos(PROGRESS_INTERVAL_NANOS);
+            }
+            parked = false;
+        }
+    }
+
+    private void append(Line line) {
+        consoleBatch.append(line.kind().console(line.message()));
+        if (file != null) {
+            jsonBatch.append("{\"time\":\"").append(Instant.ofEpochMilli(line.timestamp()))
+                    .append("\",\"level\":\"").append(line.kind().level())
+                    .append("\",\"kind\":\"").append(line.kind().name().toLowerCase(Locale.ROOT))
+                    .append("\",\"message\":");
+            appendJsonString(jsonBatch, line.message());
+            jsonBatch.append("}\n");
+        }
+    }
+
+    private void writeBatch() {
+        if (!consoleBatch.isEmpty()) {
+            console.print(consoleBatch);
+            console.flush();
+            consoleBatch.setLength(0);
+        }
+        if (!jsonBatch.isEmpty()) {
+            try {
+                file.append(jsonBatch);
+                file.flush();
+            } catch (IOException e) {
+                console.println("Log file is not writable, file logging is disabled: " + e.getMessage());
+                file = null;
+            }
+            jsonBatch.setLength(0);
+        }
+    }
+
+    private static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append("\\u%04x".formatted((int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+
+}
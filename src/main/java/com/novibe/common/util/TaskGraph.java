@@ -0,0 +1,228 @@
+package com.novibe.common.util;
+
+import com.novibe.common.exception.NextDnsHttpError;
+import lombok.Cleanup;
+import lombok.SneakyThrows;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs operations in dependency order with a bound on operations in flight.
+ * Of the ready operations, the one heading the longest chain of dependent work goes first,
+ * so a long chain is not left to start last. A failed operation is retried, and operations
+ * that {@link Task#requires require} it are skipped; operations ordered only {@link Task#after after} it still run.
+ * A {@link Task#nonIdempotent() non-idempotent} operation is retried only when the API has certainly not handled it.
+ */
+public final class TaskGraph {
+
+    private static final int ATTEMPTS = 3;
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+    private final List<Task> tasks = new ArrayList<>();
+
+    public final class Task {
+
+        private final String name;
+        private final double cost;
+        private final Runnable action;
+        private final List<Task> dependents = new ArrayList<>();
+        private final Set<Task> requirements = new HashSet<>();
+        private int waitingFor;
+        private boolean blocked;
+        private boolean failed;
+        private boolean idempotent = true;
+        private double criticalPath = -1;
+
+        private Task(String name, double cost, Runnable action) {
+            this.name = name;
+            this.cost = cost;
+            this.action = action;
+        }
+
+        /**
+         * Starts after the tasks finish, whether they succeed or not
+         */
+        public Task after(Collection<Task> tasks) {
+            for (Task task : tasks) {
+                task.dependents.add(this);
+                waitingFor++;
+            }
+            return this;
+        }
+
+        public Task after(Task... tasks) {
+            return after(List.of(tasks));
+        }
+
+        /**
+         * Starts after the tasks succeed, skipped if any of them fails
+         */
+        public Task requires(Collection<Task> tasks) {
+            requirements.addAll(tasks);
+            return after(tasks);
+        }
+
+        public Task requires(Task... tasks) {
+            return requires(List.of(tasks));
+        }
+
+        /**
+         * Sends a request that must not be repeated once the API may have applied it, e.g. creating a list by POST.
+         * After a server error or a broken connection the change may exist already, so it is left to the next run.
+         */
+        public Task nonIdempotent() {
+            idempotent = false;
+            return this;
+        }
+    }
+
+    /**
+     * @param failed  operations that failed after all attempts
+     * @param skipped operations not run because an operation they require failed
+     */
+    public record Result(List<String> failed, List<String> skipped) {
+
+        public boolean succeeded() {
+            return failed.isEmpty() && skipped.isEmpty();
+        }
+    }
+
+    /**
+     * @param cost relative duration of the operation, e.g. 1 per request
+     */
+    public Task add(String name, double cost, Runnable action) {
+        Task task = new Task(name, cost, action);
+        tasks.add(task);
+        return task;
+    }
+
+    public Task add(String name, Runnable action) {
+        return add(name, 1, action);
+    }
+
+    @SneakyThrows
+    public Result run(String title, int concurrency) {
+        tasks.forEach(TaskGraph::criticalPath);
+        PriorityQueue<Task> ready = new PriorityQueue<>(Comparator.comparingDouble((Task task) -> task.criticalPath).reversed());
+        tasks.stream().filter(task -> task.waitingFor == 0).forEach(ready::add);
+        BlockingQueue<Task> finished = new LinkedBlockingQueue<>();
+        List<String> failed = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+
+        Log.io("%s: %s operations".formatted(title, tasks.size()));
+        @Cleanup ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        int running = 0;
+        int done = 0;
+        while (done < tasks.size()) {
+            while (running < concurrency && !ready.isEmpty()) {
+                Task task = ready.poll();
+                running++;
+                executor.submit(() -> {
+                    task.failed = !attempt(task);
+                    finished.add(task);
+                });
+            }
+            if (running == 0) {
+                throw new IllegalStateException("Operations of " + title + " wait for each other");
+            }
+            // Queue hand-off makes task results visible to the dependents started from this thread
+            Deque<Task> resolved = new ArrayDeque<>(List.of(finished.take()));
+            running--;
+            while (!resolved.isEmpty()) {
+                Task task = resolved.poll();
+                done++;
+                if (task.failed) {
+                    (task.blocked ? skipped : failed).add(task.name);
+                }
+                for (Task dependent : task.dependents) {
+                    dependent.blocked |= task.failed && dependent.requirements.contains(task);
+                    if (--dependent.waitingFor > 0) {
+                        continue;
+                    }
+                    if (dependent.blocked) {
+                        dependent.failed = true;
+                        resolved.add(dependent);
+                    } else {
+                        ready.add(dependent);
+                    }
+                }
+            }
+            Log.progress(done + "/" + tasks.size());
+        }
+        Result result = new Result(failed, skipped);
+        if (result.succeeded()) {
+            Log.common("\n%s: all %s operations done".formatted(title, tasks.size()));
+        } else {
+            Log.fail("%s: %s operations failed %s, %s skipped because of them"
+                    .formatted(title, failed.size(), failed, skipped.size()));
+        }
+        return result;
+    }
+
+    /**
+     * Client errors other than 429 are not retried, the same request would fail the same way.
+     * A non-idempotent operation is retried only after 429 or 503, which mean the request was not handled.
+     */
+    private static boolean attempt(Task task) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                task.action.run();
+                return true;
+            } catch (Exception e) {
+                if (attempt == ATTEMPTS || !isRetryable(task, e)) {
+                    Log.fail("%s failed: %s".formatted(task.name, e.getMessage()));
+                    return false;
+                }
+                int next = attempt + 1;
+                Log.debug(() -> "%s failed: %s, attempt %s of %s".formatted(task.name, e.getMessage(), next, ATTEMPTS));
+                sleep(RETRY_DELAY.multipliedBy(attempt));
+            }
+        }
+    }
+
+    private static boolean isRetryable(Task task, Exception e) {
+        if (e instanceof NextDnsHttpError error) {
+            int code = error.getCode();
+            return code == 429 || code == 503 || (task.idempotent && code >= 500);
+        }
+        return task.idempotent;
+    }
+
+    @SneakyThrows
+    private static void sleep(Duration duration) {
+        Thread.sleep(duration);
+    }
+
+    /**
+     * Own cost plus the costliest chain of dependents
+     */
+    private static double criticalPath(Task task) {
+        if (task.criticalPath >= 0) {
+            return task.criticalPath;
+        }
+        if (task.criticalPath == -2) {
+            throw new IllegalStateException("Operation " + task.name + " is in a dependency cycle");
+        }
+        task.criticalPath = -2;
+        double longest = 0;
+        for (Task dependent : task.dependents) {
+            longest = Math.max(longest, criticalPath(dependent));
+        }
+        task.criticalPath = task.cost + longest;
+        return task.criticalPath;
+    }
+
+}
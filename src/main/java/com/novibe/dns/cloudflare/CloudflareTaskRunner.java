@@ -3,21 +3,31 @@ package com.novibe.dns.cloudflare;
 import com.novibe.common.DnsTaskRunner;
 import com.novibe.common.data_sources.HostsBlockListsLoader;
 import com.novibe.common.data_sources.HostsOverrideListsLoader;
-import com.novibe.common.data_sources.HostsOverrideListsLoader.BypassRoute;
+import com.novibe.common.domains.BlocklistPipeline;
+import com.novibe.common.domains.DesiredState;
+import com.novibe.common.domains.DesiredStateMerger;
+import com.novibe.common.domains.FingerprintStore;
+import com.novibe.common.domains.StateFingerprint;
 import com.novibe.common.util.EnvParser;
 import com.novibe.common.util.Log;
 import com.novibe.dns.cloudflare.http.dto.response.list.GatewayListDto;
-import com.novibe.dns.cloudflare.service.ListService;
-import com.novibe.dns.cloudflare.service.RuleService;
+import com.novibe.dns.cloudflare.service.AppliedStateMarker;
+import com.novibe.dns.cloudflare.service.ListSyncService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import static com.novibe.common.config.EnvironmentVariables.BLOCK;
+import static com.novibe.common.config.EnvironmentVariables.CLIENT_ID;
+import static com.novibe.common.config.EnvironmentVariables.CONFLICT_POLICY;
+import static com.novibe.common.config.EnvironmentVariables.FORCE_REWRITE;
+import static com.novibe.common.config.EnvironmentVariables.LIST_SHARDS;
+import static com.novibe.common.config.EnvironmentVariables.LIST_SIZE;
 import static com.novibe.common.config.EnvironmentVariables.REDIRECT;
-
+import static com.novibe.common.config.EnvironmentVariables.RULE_MAX_EXPRESSION;
+import static com.novibe.common.config.EnvironmentVariables.RULE_MAX_LISTS;
 
 @Service
 @RequiredArgsConstructor
@@ -25,46 +35,62 @@ public class CloudflareTaskRunner implements DnsTaskRunner {
 
     private final HostsBlockListsLoader blockListsLoader;
     private final HostsOverrideListsLoader overrideListsLoader;
-    private final ListService listService;
-    private final RuleService ruleService;
+    private final BlocklistPipeline blocklistPipeline;
+    private final DesiredStateMerger desiredStateMerger;
+    private final ListSyncService listSyncService;
+    private final AppliedStateMarker appliedStateMarker;
+    private final FingerprintStore fingerprintStore;
 
     @Override
     public void run() {
 
         Log.global("CLOUDFLARE");
         Log.common("""
-        Script behaviour: previously generated data is always about to be removed.
+        Script behaviour: previously generated lists are patched with changed domains only, FORCE_REWRITE=true recreates them from scratch.
         If you want to clear Cloudflare block/redirect settings, launch this script without providing sources in related environment variables.""");
 
-        List<String> blocks = blockListsLoader.fetchWebsites(EnvParser.parse(BLOCK));
-        List<BypassRoute> overrides = overrideListsLoader.fetchWebsites(EnvParser.parse(REDIRECT));
-
-        Log.step("Remove old rules.");
-        ruleService.removeOldRules();
+        DesiredState desired = desiredStateMerger.merge(
+                blocklistPipeline.prepare(blockListsLoader.fetchWebsites(EnvParser.parse(BLOCK))),
+                overrideListsLoader.fetchSources(EnvParser.parse(REDIRECT)));
+
+        boolean forceRewrite = "true".equalsIgnoreCase(FORCE_REWRITE);
+        String target = "cloudflare|" + CLIENT_ID;
+        String fingerprint = StateFingerprint.of(desired, Map.of(
+                "CONFLICT_POLICY", String.valueOf(CONFLICT_POLICY),
+                "LIST_SIZE", String.valueOf(LIST_SIZE),
+                "LIST_SHARDS", String.valueOf(LIST_SHARDS),
+                "RULE_MAX_LISTS", String.valueOf(RULE_MAX_LISTS),
+                "RULE_MAX_EXPRESSION", String.valueOf(RULE_MAX_EXPRESSION)));
+        Optional<String> lastApplied = fingerprintStore.lastApplied(target);
+        Optional<GatewayListDto> marked = appliedStateMarker.find();
+        // Without a local record the remote mark alone decides, a different local record means changes for sure
+        boolean unchanged = lastApplied.map(fingerprint::equals).orElse(true)
+                && marked.filter(list -> AppliedStateMarker.matches(list, fingerprint)).isPresent();
+        if (unchanged && !forceRewrite) {
+            Log.common("Nothing changed since the last successful run, skipping all writes");
+            fingerprintStore.record(target, fingerprint);
+            Log.global("FINISHED");
+            return;
+        }
 
-        Log.step("Remove old lists.");
-        listService.removeOldLists();
+        marked.ifPresent(appliedStateMarker::clear);
+        ListSyncService.Outcome outcome = forceRewrite ? rewriteAll(desired, fingerprint) : listSyncService.sync(desired);
+        if (outcome.succeeded()) {
+            appliedStateMarker.mark(marked, fingerprint);
+            listSyncService.saveSnapshot(outcome.contents());
+            fingerprintStore.record(target, fingerprint);
+        }
 
-        Log.step("Creating new block lists");
-        if (!blocks.isEmpty()) {
-            List<GatewayListDto> gatewayListDtos = listService.createNewBlockLists(blocks);
+        Log.global("FINISHED");
+    }
 
-            Log.step("Creating new blocking rule");
-            ruleService.createNewBlockingRule(gatewayListDtos);
-        } else {
+    private ListSyncService.Outcome rewriteAll(DesiredState desired, String fingerprint) {
+        if (desired.blocks().isEmpty()) {
             Log.fail("Websites to block were not provided");
         }
-
-        Log.step("Creating new override lists");
-        if (!overrides.isEmpty()) {
-            Map<String, List<GatewayListDto>> newOverrideLists = listService.createNewOverrideLists(overrides);
-
-            Log.step("Creating new override rules");
-            ruleService.createNewOverrideRules(newOverrideLists);
-        } else {
+        if (desired.routes().isEmpty()) {
             Log.fail("Websites to override were not provided");
         }
-
-        Log.global("FINISHED");
+        return listSyncService.rewrite(desired, fingerprint);
     }
 }
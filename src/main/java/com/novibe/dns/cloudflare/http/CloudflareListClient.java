@@ -1,7 +1,12 @@
 package com.novibe.dns.cloudflare.http;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.novibe.dns.cloudflare.http.dto.request.CreateListRequest;
+import com.novibe.dns.cloudflare.http.dto.request.PatchListRequest;
+import com.novibe.dns.cloudflare.http.dto.request.UpdateListRequest;
 import com.novibe.dns.cloudflare.http.dto.response.list.GatewayListDto;
+import com.novibe.dns.cloudflare.http.dto.response.list.ListItemsApiResponse;
 import com.novibe.dns.cloudflare.http.dto.response.list.MultiListApiResponse;
 import com.novibe.dns.cloudflare.http.dto.response.list.SingleListApiResponse;
 import lombok.RequiredArgsConstructor;
@@ -9,6 +14,7 @@ import lombok.SneakyThrows;
 import lombok.extern.java.Log;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
@@ -19,13 +25,21 @@ import java.util.UUID;
 public class CloudflareListClient {
 
     private static final String path = "/lists";
+    private static final int LISTS_PER_PAGE = 100;
+    private static final int ITEMS_PER_PAGE = 1000;
 
     private final RequestCloudflare requestCloudflare;
 
-    @SneakyThrows
+    /**
+     * Lists without their items, pages are loaded while iterating
+     */
+    public PagedInventory<GatewayListDto> iterateLists() {
+        return PagedInventory.of(requestCloudflare, path, LISTS_PER_PAGE, MultiListApiResponse.class,
+                response -> Objects.requireNonNullElse(response.getResult(), List.of()));
+    }
+
     public List<GatewayListDto> getLists() {
-        List<GatewayListDto> lists = requestCloudflare.get(path, MultiListApiResponse.class).getResult();
-        return Objects.requireNonNullElse(lists, List.of());
+        return iterateLists().stream().toList();
     }
 
     @SneakyThrows
@@ -33,9 +47,42 @@ public class CloudflareListClient {
         return requestCloudflare.post(path, createListRequest, SingleListApiResponse.class);
     }
 
+    public List<String> getListItems(UUID listId) {
+        return PagedInventory.of(requestCloudflare, path + "/" + listId + "/items", ITEMS_PER_PAGE, ListItemsApiResponse.class,
+                        response -> {
+                            List<String> values = new ArrayList<>();
+                            if (response.getResult() != null) {
+                                collectValues(response.getResult(), values);
+                            }
+                            return values;
+                        })
+                .stream()
+                .toList();
+    }
+
+    @SneakyThrows
+    public SingleListApiResponse patchList(UUID listId, PatchListRequest patchListRequest) {
+        return requestCloudflare.patch(path + "/" + listId, patchListRequest, SingleListApiResponse.class);
+    }
+
+    @SneakyThrows
+    public SingleListApiResponse updateList(UUID listId, UpdateListRequest updateListRequest) {
+        return requestCloudflare.put(path + "/" + listId, updateListRequest, SingleListApiResponse.class);
+    }
+
     @SneakyThrows
     public SingleListApiResponse deleteListById(UUID listId) {
         return requestCloudflare.delete(path + "/" + listId, SingleListApiResponse.class);
     }
 
+    private static void collectValues(JsonArray items, List<String> values) {
+        for (JsonElement item : items) {
+            if (item.isJsonArray()) {
+                collectValues(item.getAsJsonArray(), values);
+            } else if (item.isJsonObject() && item.getAsJsonObject().has("value")) {
+                values.add(item.getAsJsonObject().get("value").getAsString());
+            }
+        }
+    }
+
 }
@@ -1,17 +1,22 @@
 package com.novibe.dns.cloudflare.http;
 
 import com.novibe.dns.cloudflare.http.dto.request.CreateRuleRequest;
+import com.novibe.dns.cloudflare.http.dto.response.rule.GatewayRuleDto;
 import com.novibe.dns.cloudflare.http.dto.response.rule.MultiRuleApiResponse;
 import com.novibe.dns.cloudflare.http.dto.response.rule.SingleRuleApiResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Objects;
+
 @Component
 @RequiredArgsConstructor
 public class CloudflareRuleClient {
 
     private static final String path ="/rules";
+    private static final int RULES_PER_PAGE = 100;
 
     private final RequestCloudflare requestCloudflare;
 
@@ -20,14 +25,25 @@ public class CloudflareRuleClient {
         return requestCloudflare.post(path, rule, SingleRuleApiResponse.class);
     }
 
+    /**
+     * Replaces the rule in place, so traffic switches to the new lists with no moment without the rule
+     */
+    @SneakyThrows
+    public SingleRuleApiResponse updateRule(String id, CreateRuleRequest rule) {
+        return requestCloudflare.put(path + "/" + id, rule, SingleRuleApiResponse.class);
+    }
+
     @SneakyThrows
     public SingleRuleApiResponse removeRuleById(String id) {
         return requestCloudflare.delete(path + "/" + id, SingleRuleApiResponse.class);
     }
 
-    @SneakyThrows
-    public MultiRuleApiResponse getRules() {
-        return requestCloudflare.get(path, MultiRuleApiResponse.class);
+    /**
+     * Pages are loaded while iterating
+     */
+    public PagedInventory<GatewayRuleDto> iterateRules() {
+        return PagedInventory.of(requestCloudflare, path, RULES_PER_PAGE, MultiRuleApiResponse.class,
+                response -> Objects.requireNonNullElse(response.getResult(), List.of()));
     }
 
 }
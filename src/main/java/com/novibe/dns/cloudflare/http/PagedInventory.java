@@ -0,0 +1,114 @@
+package com.novibe.dns.cloudflare.http;
+
+import com.novibe.dns.cloudflare.http.dto.response.CloudflareApiResponse;
+import com.novibe.dns.cloudflare.http.dto.response.ResultInfo;
+import lombok.SneakyThrows;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Iterator over a paginated Cloudflare collection.
+ * Page 1 is read on creation and its result_info tells how many pages follow. Once the caller reads past page 1,
+ * they are requested concurrently, at most {@link #PREFETCH} pages ahead of the one being read, so a large inventory
+ * is never held in memory at once and a caller that stops on page 1 sends no other request.
+ */
+public final class PagedInventory<T> implements Iterator<T> {
+
+    private static final int PREFETCH = 8;
+
+    private final IntFunction<List<T>> pageLoader;
+    private final int pages;
+    private final Deque<FutureTask<List<T>>> window = new ArrayDeque<>();
+    private int nextPage = 2;
+    private Iterator<T> current;
+
+    private PagedInventory(List<T> firstPage, int pages, IntFunction<List<T>> pageLoader) {
+        this.current = firstPage.iterator();
+        this.pages = pages;
+        this.pageLoader = pageLoader;
+    }
+
+    /**
+     * @param perPage requested page size, the page size Cloudflare answers with is used to count pages
+     * @param items   extracts page items from a response, an empty page has to give an empty list
+     */
+    static <T, R extends CloudflareApiResponse<?>> PagedInventory<T> of(RequestCloudflare requestCloudflare,
+                                                                       String path,
+                                                                       int perPage,
+                                                                       Class<R> responseType,
+                                                                       Function<R, List<T>> items) {
+        IntFunction<R> request = page -> requestCloudflare.get(
+                "%s?page=%s&per_page=%s".formatted(path, page, perPage), responseType);
+        R first = request.apply(1);
+        List<T> firstPage = items.apply(first);
+        return new PagedInventory<>(firstPage, pageCount(first.getResultInfo(), firstPage.size()),
+                page -> items.apply(request.apply(page)));
+    }
+
+    private static int pageCount(ResultInfo info, int firstPageSize) {
+        if (isNull(info) || info.getTotalCount() <= firstPageSize) {
+            return 1;
+        }
+        int pageSize = info.getPerPage() > 0 ? info.getPerPage() : firstPageSize;
+        return pageSize > 0 ? Math.ceilDiv(info.getTotalCount(), pageSize) : 1;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            prefetch();
+            FutureTask<List<T>> page = window.poll();
+            if (isNull(page)) {
+                return false;
+            }
+            prefetch();
+            current = await(page).iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false);
+    }
+
+    private void prefetch() {
+        while (window.size() < PREFETCH && nextPage <= pages) {
+            int page = nextPage++;
+            FutureTask<List<T>> task = new FutureTask<>(() -> pageLoader.apply(page));
+            Thread.startVirtualThread(task);
+            window.add(task);
+        }
+    }
+
+    @SneakyThrows
+    private static <T> List<T> await(FutureTask<List<T>> page) {
+        try {
+            return page.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+}
@@ -0,0 +1,10 @@
+package com.novibe.dns.cloudflare.http.dto.request;
+
+import com.novibe.dns.cloudflare.http.dto.Item;
+import lombok.Builder;
+
+import java.util.List;
+
+@Builder
+public record PatchListRequest(List<Item> append, List<String> remove) {
+}
@@ -0,0 +1,7 @@
+package com.novibe.dns.cloudflare.http.dto.request;
+
+/**
+ * Name and description of a list, its items are left as they are
+ */
+public record UpdateListRequest(String name, String description) {
+}
@@ -0,0 +1,11 @@
+package com.novibe.dns.cloudflare.http.dto.response.list;
+
+import com.google.gson.JsonArray;
+import com.novibe.dns.cloudflare.http.dto.response.CloudflareApiResponse;
+
+/**
+ * Items are returned as an array, possibly wrapped into one more array, so the result is kept raw.
+ */
+public class ListItemsApiResponse extends CloudflareApiResponse<JsonArray> {
+
+}
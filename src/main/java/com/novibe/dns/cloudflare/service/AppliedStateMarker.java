@@ -0,0 +1,60 @@
+package com.novibe.dns.cloudflare.service;
+
+import com.novibe.dns.cloudflare.http.CloudflareListClient;
+import com.novibe.dns.cloudflare.http.dto.request.CreateListRequest;
+import com.novibe.dns.cloudflare.http.dto.response.list.GatewayListDto;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Mirrors the fingerprint of the last successful apply in the description of an empty list of its own,
+ * so a runner without the local cache can still tell the account is up to date.
+ * Descriptions of the script lists are left to the session that owns them.
+ * The mark is cleared before changes start, so an interrupted apply is never taken for an applied state.
+ */
+@Service
+@RequiredArgsConstructor
+public class AppliedStateMarker {
+
+    private static final String MARKER_LIST_NAME = "DnsConf applied state";
+    private static final String PENDING = "pending";
+
+    private final CloudflareListClient cloudflareListClient;
+    private final ListService listService;
+
+    /**
+     * Reads the list inventory until the marker list is found
+     */
+    public Optional<GatewayListDto> find() {
+        return cloudflareListClient.iterateLists().stream()
+                .filter(list -> MARKER_LIST_NAME.equals(list.getName()))
+                .findFirst();
+    }
+
+    public static boolean matches(GatewayListDto marker, String fingerprint) {
+        return fingerprint.equals(marker.getDescription());
+    }
+
+    public void clear(GatewayListDto marker) {
+        if (!PENDING.equals(marker.getDescription())) {
+            listService.describeList(marker, PENDING);
+        }
+    }
+
+    /**
+     * @param marker the marker list found before the changes, created if there is none yet
+     */
+    public void mark(Optional<GatewayListDto> marker, String fingerprint) {
+        marker.ifPresentOrElse(list -> listService.describeList(list, fingerprint),
+                () -> listService.saveList(CreateListRequest.builder()
+                        .name(MARKER_LIST_NAME)
+                        .type("DOMAIN")
+                        .description(fingerprint)
+                        .items(List.of())
+                        .build()));
+    }
+
+}
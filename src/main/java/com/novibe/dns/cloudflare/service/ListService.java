@@ -1,137 +1,97 @@
 package com.novibe.dns.cloudflare.service;
 
-import com.novibe.common.data_sources.HostsOverrideListsLoader;
-import com.novibe.common.util.FunctionWrapper;
+import com.novibe.common.domains.DomainSet;
 import com.novibe.common.util.Log;
 import com.novibe.dns.cloudflare.http.CloudflareListClient;
 import com.novibe.dns.cloudflare.http.dto.Item;
 import com.novibe.dns.cloudflare.http.dto.request.CreateListRequest;
-import com.novibe.dns.cloudflare.http.dto.response.CloudflareApiMessage;
+import com.novibe.dns.cloudflare.http.dto.request.PatchListRequest;
+import com.novibe.dns.cloudflare.http.dto.request.UpdateListRequest;
 import com.novibe.dns.cloudflare.http.dto.response.list.GatewayListDto;
 import com.novibe.dns.cloudflare.http.dto.response.list.SingleListApiResponse;
-import lombok.Cleanup;
 import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class ListService {
 
-    private static final String BLOCK_LIST_NAME_PREFIX = "Blocked websites by script";
-    private static final String OVERRIDE_LIST_NAME_PREFIX = "Override websites by script";
+    static final String BLOCK_LIST_NAME_PREFIX = "Blocked websites by script";
+    static final String OVERRIDE_LIST_NAME_PREFIX = "Override websites by script";
 
     private final CloudflareListClient cloudflareListClient;
+    private final ListSharding listSharding;
     private final String sessionId;
 
 
-    @SneakyThrows
-    public List<GatewayListDto> createNewBlockLists(List<String> websitesToBlock) {
+    public List<CreateListRequest> formBlockListRequests(DomainSet websitesToBlock) {
 
-        List<List<Item>> websitesByChunks = cutChunks(websiteAsItem(websitesToBlock));
+        List<List<Item>> websitesByChunks = listSharding.shard(websitesToBlock, 0).stream()
+                .map(this::websiteAsItem)
+                .toList();
 
         Log.common("Total websites count: %s\nPrepared %s chunks of websites list to block."
                 .formatted(websitesToBlock.size(), websitesByChunks.size()));
 
-        List<CreateListRequest> createListRequests = mapToBlockListRequests(websitesByChunks);
-        return saveNewLists(createListRequests);
+        return mapToBlockListRequests(websitesByChunks);
     }
 
-    @SneakyThrows
-    public Map<String, List<GatewayListDto>> createNewOverrideLists(List<HostsOverrideListsLoader.BypassRoute> routes) {
-
-        Map<String, List<GatewayListDto>> result = new HashMap<>();
-
-        Map<String, List<CreateListRequest>> requests = formOverrideListRequestsByIp(routes);
+    /**
+     * Lists of the script left by previous sessions
+     *
+     * @param inventory lists of the account, read before this session saved any
+     */
+    public List<GatewayListDto> findOldLists(List<GatewayListDto> inventory) {
+        return inventory.stream()
+                .filter(ListService::isScriptList)
+                .filter(list -> !sessionId.equals(list.getDescription()))
+                .toList();
+    }
 
-        for (Map.Entry<String, List<CreateListRequest>> entry : requests.entrySet()) {
-            String overrideIp = entry.getKey();
-            Log.io("Posting override lists for IP: " + overrideIp);
-            List<GatewayListDto> response = saveNewLists(entry.getValue());
-            result.put(overrideIp, response);
+    public GatewayListDto saveList(CreateListRequest request) {
+        SingleListApiResponse response = cloudflareListClient.postList(request);
+        if (!response.isSuccess()) {
+            throw new IllegalStateException("Failed to save list %s: %s".formatted(request.name(), response.getErrors()));
         }
-        return result;
+        return response.getResult();
     }
 
-    public void removeOldLists() {
-        List<UUID> oldIds = cloudflareListClient.getLists()
-                .stream()
-                .filter(list -> list.getName().startsWith(BLOCK_LIST_NAME_PREFIX)
-                        || list.getName().startsWith(OVERRIDE_LIST_NAME_PREFIX))
-                .filter(list -> !sessionId.equals(list.getDescription()))
-                .map(GatewayListDto::getId)
-                .toList();
-        if (oldIds.isEmpty()) {
-            Log.common("No lists found to remove");
-            return;
+    public void patchList(GatewayListDto list, PatchListRequest request) {
+        SingleListApiResponse response = cloudflareListClient.patchList(list.getId(), request);
+        if (!response.isSuccess()) {
+            throw new IllegalStateException("Failed to patch list %s: %s".formatted(list.getName(), response.getErrors()));
         }
-        Log.io("Removing " + oldIds.size() + " lists...");
-        AtomicInteger counter = new AtomicInteger();
-        @Cleanup ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
-        List<List<CloudflareApiMessage>> errors = oldIds.stream()
-                .map(id -> executor.submit(() -> cloudflareListClient.deleteListById(id)))
-                .map(FunctionWrapper.wrap(Future::get))
-                .peek(response -> {
-                    if (response.isSuccess()) Log.progress(counter.incrementAndGet() + "/" + oldIds.size());
-                })
-                .filter(response -> !response.isSuccess())
-                .map(SingleListApiResponse::getErrors)
-                .toList();
+    }
 
-        if (!errors.isEmpty()) {
-            Log.fail("Failed to remove old lists (%s of %s): %s".formatted(errors.size(), oldIds.size(), errors));
-        } else {
-            Log.common("\n%s of %s old lists have been removed".formatted(counter, oldIds.size()));
+    public void describeList(GatewayListDto list, String description) {
+        SingleListApiResponse response = cloudflareListClient.updateList(list.getId(), new UpdateListRequest(list.getName(), description));
+        if (!response.isSuccess()) {
+            throw new IllegalStateException("Failed to update list %s: %s".formatted(list.getName(), response.getErrors()));
         }
     }
 
-    @SneakyThrows
-    private List<GatewayListDto> saveNewLists(List<CreateListRequest> createListRequests) {
-        Log.io("Saving " + createListRequests.size() + " lists...");
-        @Cleanup ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
-        List<Future<SingleListApiResponse>> futures = createListRequests.stream()
-                .map(list -> executor.submit(() -> cloudflareListClient.postList(list)))
-                .toList();
-
-        List<List<CloudflareApiMessage>> errors = new ArrayList<>();
-        List<GatewayListDto> result = new ArrayList<>();
-        int counter = 0;
-        for (Future<SingleListApiResponse> res : futures) {
-            SingleListApiResponse response = res.get();
-            if (response.isSuccess()) {
-                Log.progress(++counter + "/" + createListRequests.size());
-                result.add(response.getResult());
-            } else {
-                errors.add(response.getErrors());
-            }
+    public void deleteList(GatewayListDto list) {
+        SingleListApiResponse response = cloudflareListClient.deleteListById(list.getId());
+        if (!response.isSuccess()) {
+            throw new IllegalStateException("Failed to remove list %s: %s".formatted(list.getName(), response.getErrors()));
         }
-        if (errors.isEmpty()) {
-            Log.common("\n%s of %s new lists have been saved".formatted(counter, createListRequests.size()));
-        } else {
-            Log.fail("Failed to save new lists (%s of %s): %s".formatted(errors.size(), createListRequests.size(), errors));
-        }
-        return result;
     }
 
-    Map<String, List<CreateListRequest>> formOverrideListRequestsByIp(List<HostsOverrideListsLoader.BypassRoute> routes) {
-        Map<String, String> mergedWebsiteOnIp = new HashMap<>();
-        //Priority of IP is provided by sources order
-        for (HostsOverrideListsLoader.BypassRoute route : routes) {
-            mergedWebsiteOnIp.putIfAbsent(route.website(), route.ip());
-        }
+    /**
+     * @param routes redirect IP by domain, already merged by priority
+     */
+    public Map<String, List<CreateListRequest>> formOverrideListRequestsByIp(Map<String, String> routes) {
         //Group to lists by IP
         Map<String, List<CreateListRequest>> result = new HashMap<>();
-        Map<String, List<String>> ipForWebsites = mergedWebsiteOnIp.entrySet().stream()
+        Map<String, List<String>> ipForWebsites = routes.entrySet().stream()
                 .collect(Collectors.groupingBy(Map.Entry::getValue, Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
         for (Map.Entry<String, List<String>> entry : ipForWebsites.entrySet()) {
-            List<List<Item>> chunks = cutChunks(websiteAsItem(entry.getValue()));
+            List<List<Item>> chunks = listSharding.shard(entry.getValue(), 0).stream()
+                    .map(this::websiteAsItem)
+                    .toList();
             List<CreateListRequest> createListRequests = mapToOverrideListRequests(chunks, entry.getKey());
             result.put(entry.getKey(), createListRequests);
         }
@@ -143,15 +103,30 @@ public class ListService {
     }
 
     private List<CreateListRequest> mapToOverrideListRequests(List<List<Item>> chunkedWebsitesList, String ip) {
-        return mapToListRequests(chunkedWebsitesList, OVERRIDE_LIST_NAME_PREFIX + " to IP " + ip);
+        return mapToListRequests(chunkedWebsitesList, overrideListNamePrefix(ip));
+    }
+
+    static boolean isScriptList(GatewayListDto list) {
+        return list.getName() != null
+                && (list.getName().startsWith(BLOCK_LIST_NAME_PREFIX) || list.getName().startsWith(OVERRIDE_LIST_NAME_PREFIX));
+    }
+
+    static String overrideListNamePrefix(String ip) {
+        return OVERRIDE_LIST_NAME_PREFIX + " to IP " + ip;
     }
 
+    /**
+     * List number is the shard number, so an incremental sync later finds every domain in the list it hashes to.
+     */
     private List<CreateListRequest> mapToListRequests(List<List<Item>> chunkedWebsitesList, String namePrefix) {
-        int chunkNumber = 1;
         ArrayList<CreateListRequest> requests = new ArrayList<>();
-        for (List<Item> items : chunkedWebsitesList) {
+        for (int chunk = 0; chunk < chunkedWebsitesList.size(); chunk++) {
+            List<Item> items = chunkedWebsitesList.get(chunk);
+            if (items.isEmpty()) {
+                continue;
+            }
             CreateListRequest newListRequestDto = CreateListRequest.builder()
-                    .name(namePrefix + " " + chunkNumber++)
+                    .name(namePrefix + " " + (chunk + 1))
                     .type("DOMAIN")
                     .items(items)
                     .description(sessionId)
@@ -165,20 +140,4 @@ public class ListService {
     private List<Item> websiteAsItem(List<String> urlsToBlock) {
         return urlsToBlock.stream().map(Item::new).toList();
     }
-
-    private static <T> List<List<T>> cutChunks(List<T> list) {
-        final int chunkSize = 1000;
-        List<List<T>> chunks = new ArrayList<>();
-        if (list.size() <= chunkSize) {
-            chunks = List.of(list);
-
-        } else {
-            for (int i = 0; list.size() > i + chunkSize; i += chunkSize) {
-                chunks.add(list.subList(i, i + chunkSize));
-            }
-            int tail = list.size() % chunkSize;
-            chunks.add(list.subList(list.size() - tail, list.size()));
-        }
-        return chunks;
-    }
 }
@@ -0,0 +1,101 @@
+package com.novibe.dns.cloudflare.service;
+
+import com.novibe.common.domains.DomainSet;
+import com.novibe.common.util.EnvParser;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.novibe.common.config.EnvironmentVariables.LIST_SHARDS;
+import static com.novibe.common.config.EnvironmentVariables.LIST_SIZE;
+
+/**
+ * Stable assignment of domains to Cloudflare lists.
+ * A domain goes to the list chosen by jump consistent hash of the domain, so adding or removing a domain
+ * touches only its own list, and adding a list moves only the domains that the new list takes over.
+ * A list gets more domains than fit only by chance; the surplus with the highest hashes moves on to the next list.
+ * LIST_SIZE is the item limit of a list on the account plan, LIST_SHARDS is the least count of lists to spread domains over.
+ */
+@Component
+public class ListSharding {
+
+    /**
+     * Lists are filled to this share on average, so a few extra domains rarely overflow a list.
+     */
+    private static final double TARGET_FILL = 0.9;
+
+    private final int listSize = EnvParser.parseInt(LIST_SIZE, 1000);
+    private final int minShards = EnvParser.parseInt(LIST_SHARDS, 1);
+
+    public int listSize() {
+        return listSize;
+    }
+
+    /**
+     * @param currentShards count of lists the domains are spread over now, 0 if there are none
+     * @return domains of every list; the count of lists is kept unless it is too small or far too big
+     */
+    public List<List<String>> shard(Collection<String> domains, int currentShards) {
+        if (domains.isEmpty()) {
+            return List.of();
+        }
+        int needed = Math.max(minShards, (int) Math.ceil(domains.size() / (listSize * TARGET_FILL)));
+        int shards = currentShards >= needed && currentShards <= 2 * needed ? currentShards : needed;
+
+        List<List<Ranked>> buckets = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (String domain : domains) {
+            byte[] bytes = domain.getBytes(StandardCharsets.UTF_8);
+            long hash = DomainSet.hash(bytes, 0, bytes.length);
+            buckets.get(jumpHash(hash, shards)).add(new Ranked(hash, domain));
+        }
+
+        List<List<String>> result = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            result.add(new ArrayList<>());
+        }
+        // Two rounds are always enough: the lists can hold all domains, so a surplus finds space within one round
+        List<Ranked> surplus = new ArrayList<>();
+        for (int round = 0; round < 2 * shards; round++) {
+            int shard = round % shards;
+            List<Ranked> candidates = buckets.get(shard);
+            candidates.addAll(surplus);
+            surplus.clear();
+            candidates.sort(Comparator.comparingLong(Ranked::hash));
+            List<String> list = result.get(shard);
+            for (Ranked candidate : candidates) {
+                if (list.size() < listSize) {
+                    list.add(candidate.domain());
+                } else {
+                    surplus.add(candidate);
+                }
+            }
+            candidates.clear();
+        }
+        return result;
+    }
+
+    private record Ranked(long hash, String domain) {
+    }
+
+    /**
+     * Jump consistent hash by Lamping and Veach: bucket in [0, buckets) that changes for 1/(n+1) of keys when growing to n+1.
+     */
+    static int jumpHash(long key, int buckets) {
+        long bucket = -1;
+        long next = 0;
+        while (next < buckets) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+}
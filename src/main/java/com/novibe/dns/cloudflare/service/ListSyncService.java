@@ -0,0 +1,442 @@
+package com.novibe.dns.cloudflare.service;
+
+import com.novibe.common.domains.DesiredState;
+import com.novibe.common.domains.OperationJournal;
+import com.novibe.common.domains.SnapshotStore;
+import com.novibe.common.util.EnvParser;
+import com.novibe.common.util.Log;
+import com.novibe.common.util.TaskGraph;
+import com.novibe.dns.cloudflare.http.CloudflareListClient;
+import com.novibe.dns.cloudflare.http.dto.Item;
+import com.novibe.dns.cloudflare.http.dto.request.CreateListRequest;
+import com.novibe.dns.cloudflare.http.dto.request.PatchListRequest;
+import com.novibe.dns.cloudflare.http.dto.response.list.GatewayListDto;
+import com.novibe.dns.cloudflare.http.dto.response.rule.GatewayRuleDto;
+import lombok.Cleanup;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import static com.novibe.common.config.EnvironmentVariables.CLIENT_ID;
+import static com.novibe.common.config.EnvironmentVariables.SYNC_CONCURRENCY;
+import static com.novibe.dns.cloudflare.service.ListService.BLOCK_LIST_NAME_PREFIX;
+import static com.novibe.dns.cloudflare.service.ListService.overrideListNamePrefix;
+
+/**
+ * Sync of script lists and rules, run as one {@link TaskGraph} over all groups of lists:
+ * a rule is switched once the lists of its group are saved, and a list is removed once no rule refers to it.
+ * <p>
+ * Incremental sync patches existing lists only with domains added and removed since the last run.
+ * Every domain belongs to the list of its shard (see {@link ListSharding}), so a small upstream change touches
+ * one or two lists, and lists and rules are created or deleted only when the count of shards changes.
+ * <p>
+ * Items of a list are taken from the snapshot of the last successful run while the list still has the same
+ * update time and count, so only lists changed since then are read item by item.
+ */
+@Service
+@RequiredArgsConstructor
+public class ListSyncService {
+
+    private final CloudflareListClient cloudflareListClient;
+    private final ListService listService;
+    private final RuleService ruleService;
+    private final ListSharding listSharding;
+    private final String sessionId;
+    private final SnapshotStore snapshotStore;
+    private final OperationJournal operationJournal;
+    private final int concurrency = EnvParser.parseInt(SYNC_CONCURRENCY, 32);
+
+    /**
+     * @param succeeded true if every list and rule change succeeded
+     * @param contents  items of the script lists written or checked by the run, by list id
+     */
+    public record Outcome(boolean succeeded, Map<UUID, List<String>> contents) {
+    }
+
+    /**
+     * Snapshot entry of one list, valid while the list keeps its update time and count
+     */
+    private record ListContent(UUID id, String updatedAt, int count, List<String> items) {
+    }
+
+    /**
+     * Planned changes of one existing list.
+     */
+    private static final class ListPatch {
+
+        private final GatewayListDto list;
+        private final List<Item> append = new ArrayList<>();
+        private final List<String> remove = new ArrayList<>();
+
+        private ListPatch(GatewayListDto list) {
+            this.list = list;
+        }
+
+        private boolean hasChanges() {
+            return !append.isEmpty() || !remove.isEmpty();
+        }
+    }
+
+    /**
+     * Planned changes of all groups, for the summary
+     */
+    private static final class Totals {
+
+        private int added;
+        private int removed;
+        private int patched;
+        private int created;
+        private int deleted;
+    }
+
+    public Outcome sync(DesiredState desired) {
+        List<GatewayListDto> existing = cloudflareListClient.getLists();
+        List<GatewayRuleDto> rules = ruleService.getRules();
+        Map<UUID, List<String>> items = fetchItems(existing.stream().filter(ListService::isScriptList).toList());
+
+        Map<String, Set<String>> websitesByIp = new HashMap<>();
+        desired.routes().forEach((website, ip) -> websitesByIp.computeIfAbsent(ip, key -> new HashSet<>()).add(website));
+        // IPs of existing lists are synced too, so lists of an IP that is not used anymore get removed
+        Set<String> ips = new TreeSet<>(websitesByIp.keySet());
+        existing.stream()
+                .map(list -> overrideIpOf(list.getName()))
+                .filter(Objects::nonNull)
+                .forEach(ips::add);
+
+        TaskGraph graph = new TaskGraph();
+        Totals totals = new Totals();
+        Map<UUID, List<String>> contents = new ConcurrentHashMap<>();
+        planGroup(graph, totals, contents, BLOCK_LIST_NAME_PREFIX, desired.blocks(), existing, items,
+                lists -> ruleService.syncBlockingRule(lists, rules));
+        for (String ip : ips) {
+            planGroup(graph, totals, contents, overrideListNamePrefix(ip), websitesByIp.getOrDefault(ip, Set.of()), existing, items,
+                    lists -> ruleService.syncOverrideRule(lists, ip, rules));
+        }
+        Log.common("Domains to add: %s, to remove: %s. Lists to patch: %s, to create: %s, to delete: %s"
+                .formatted(totals.added, totals.removed, totals.patched, totals.created, totals.deleted));
+
+        Log.step("Sync lists and rules");
+        return new Outcome(graph.run("Sync", concurrency).succeeded(), contents);
+    }
+
+    /**
+     * Blue/green rewrite: new lists are saved while the old rules still use the old lists,
+     * then every rule is switched in place and only after that the previous session lists are removed.
+     * If any list or rule fails, the old lists are kept.
+     * <p>
+     * Created lists are recorded in a journal, so a rewrite interrupted half way is resumed by the next run
+     * with the same plan: lists it already created are used again if they still have their name and count.
+     *
+     * @param plan fingerprint of the desired state
+     */
+    public Outcome rewrite(DesiredState desired, String plan) {
+        List<GatewayRuleDto> rules = ruleService.getRules();
+        // Read once, both for lists the interrupted run created and for lists of earlier sessions to remove
+        List<GatewayListDto> inventory = cloudflareListClient.getLists();
+
+        try (OperationJournal.Journal journal = operationJournal.open(journalTarget(), plan)) {
+            Map<String, GatewayListDto> created = createdLists(journal, inventory);
+            Set<UUID> reused = new HashSet<>();
+            TaskGraph graph = new TaskGraph();
+            Map<UUID, List<String>> contents = new ConcurrentHashMap<>();
+            List<TaskGraph.Task> switches = new ArrayList<>();
+            List<CreateListRequest> blockRequests = listService.formBlockListRequests(desired.blocks());
+            Map<String, List<CreateListRequest>> overrides = listService.formOverrideListRequestsByIp(desired.routes());
+            List<String> names = new ArrayList<>();
+            blockRequests.forEach(request -> names.add(request.name()));
+            overrides.values().forEach(requests -> requests.forEach(request -> names.add(request.name())));
+            Set<String> pending = new HashSet<>(journal.pending("create", names));
+
+            RewriteJournal rewriteJournal = new RewriteJournal(journal, pending, created, reused);
+            switches.add(planRewriteGroup(graph, contents, rewriteJournal, BLOCK_LIST_NAME_PREFIX, blockRequests,
+                    lists -> ruleService.syncBlockingRule(lists, rules)));
+            overrides.forEach((ip, requests) -> switches.add(planRewriteGroup(graph, contents, rewriteJournal, overrideListNamePrefix(ip), requests,
+                    lists -> ruleService.syncOverrideRule(lists, ip, rules))));
+
+            // Lists created by the interrupted run are of an earlier session too, but the ones used again are kept
+            List<GatewayListDto> oldLists = listService.findOldLists(inventory).stream()
+                    .filter(list -> !reused.contains(list.getId()))
+                    .toList();
+            List<TaskGraph.Task> staleRules = ruleService.findStaleRules(rules, overrides.keySet()).stream()
+                    .map(rule -> graph.add("Remove rule " + rule.getName(), () -> ruleService.deleteRule(rule))
+                            .requires(switches))
+                    .toList();
+            for (GatewayListDto list : oldLists) {
+                graph.add("Remove list " + list.getName(), () -> listService.deleteList(list))
+                        .requires(switches)
+                        .requires(staleRules);
+            }
+
+            Log.step("Rewrite lists and rules");
+            if (!graph.run("Rewrite", concurrency).succeeded()) {
+                Log.fail("Old lists still in use are kept until the next run");
+                return new Outcome(false, contents);
+            }
+            journal.finish();
+            return new Outcome(true, contents);
+        }
+    }
+
+    /**
+     * Journal of a rewrite and what it tells about lists created by the interrupted run
+     *
+     * @param pending names of lists still to create
+     * @param created lists created by the interrupted run, by name
+     * @param reused  ids of lists used again, filled while planning
+     */
+    private record RewriteJournal(OperationJournal.Journal journal,
+                                  Set<String> pending,
+                                  Map<String, GatewayListDto> created,
+                                  Set<UUID> reused) {
+    }
+
+    /**
+     * @return lists the interrupted run recorded as created and that still exist under their name, by name
+     */
+    private Map<String, GatewayListDto> createdLists(OperationJournal.Journal journal, List<GatewayListDto> inventory) {
+        if (!journal.resumed()) {
+            return Map.of();
+        }
+        Map<String, String> completed = journal.completed("create");
+        Map<String, GatewayListDto> created = new HashMap<>();
+        inventory.stream()
+                .filter(list -> list.getName() != null && String.valueOf(list.getId()).equals(completed.get(list.getName())))
+                .forEach(list -> created.put(list.getName(), list));
+        return created;
+    }
+
+    /**
+     * Records the items of the lists for the next run. Lists are read again to take their update time after all changes.
+     */
+    public void saveSnapshot(Map<UUID, List<String>> contents) {
+        List<ListContent> entries = cloudflareListClient.iterateLists().stream()
+                .filter(list -> contents.containsKey(list.getId()))
+                .filter(list -> list.getCount() == contents.get(list.getId()).size())
+                .map(list -> new ListContent(list.getId(), list.getUpdatedAt(), list.getCount(), contents.get(list.getId())))
+                .toList();
+        snapshotStore.write(snapshotTarget(), entries, (out, entry) -> {
+            out.writeLong(entry.id().getMostSignificantBits());
+            out.writeLong(entry.id().getLeastSignificantBits());
+            out.writeUTF(String.valueOf(entry.updatedAt()));
+            out.writeInt(entry.count());
+            out.writeInt(entry.items().size());
+            for (String item : entry.items()) {
+                out.writeUTF(item);
+            }
+        });
+    }
+
+    private void planGroup(TaskGraph graph,
+                           Totals totals,
+                           Map<UUID, List<String>> contents,
+                           String namePrefix,
+                           Set<String> domains,
+                           List<GatewayListDto> existing,
+                           Map<UUID, List<String>> items,
+                           Predicate<SortedMap<Integer, GatewayListDto>> ruleSync) {
+        NavigableMap<Integer, GatewayListDto> owned = new TreeMap<>();
+        List<GatewayListDto> duplicates = new ArrayList<>();
+        for (GatewayListDto list : existing) {
+            int number = listNumber(list.getName(), namePrefix);
+            if (number > 0 && owned.putIfAbsent(number, list) != null) {
+                duplicates.add(list);
+            }
+        }
+
+        // List N holds shard N, a domain in any other list is moved
+        int currentShards = owned.isEmpty() ? 0 : owned.lastKey();
+        List<List<String>> shards = listSharding.shard(domains, currentShards);
+        int slotCount = Math.max(shards.size(), currentShards);
+        // Lists of the rule by number, filled by the tasks that save them, so the rule keeps the order of lists
+        GatewayListDto[] slots = new GatewayListDto[slotCount];
+        List<TaskGraph.Task> changes = new ArrayList<>();
+        List<GatewayListDto> emptied = new ArrayList<>(duplicates);
+        for (int number = 1; number <= slotCount; number++) {
+            List<String> target = number <= shards.size() ? shards.get(number - 1) : List.of();
+            GatewayListDto list = owned.get(number);
+            int slot = number - 1;
+            if (list == null) {
+                if (!target.isEmpty()) {
+                    CreateListRequest request = CreateListRequest.builder()
+                            .name(namePrefix + " " + number)
+                            .type("DOMAIN")
+                            .items(target.stream().map(Item::new).toList())
+                            .description(sessionId)
+                            .build();
+                    changes.add(graph.add("Create list " + request.name(), cost(target.size()), () -> {
+                        slots[slot] = listService.saveList(request);
+                        contents.put(slots[slot].getId(), target);
+                    }).nonIdempotent());
+                    totals.created++;
+                    totals.added += target.size();
+                }
+                continue;
+            }
+            if (target.isEmpty()) {
+                emptied.add(list);
+                continue;
+            }
+            slots[slot] = list;
+            ListPatch patch = new ListPatch(list);
+            Set<String> current = new HashSet<>(items.getOrDefault(list.getId(), List.of()));
+            Set<String> wanted = new HashSet<>(target);
+            current.stream().filter(value -> !wanted.contains(value)).forEach(patch.remove::add);
+            target.stream().filter(domain -> !current.contains(domain)).map(Item::new).forEach(patch.append::add);
+            if (patch.hasChanges()) {
+                changes.add(graph.add("Patch list " + list.getName(), cost(patch.append.size() + patch.remove.size()), () -> {
+                    listService.patchList(list, PatchListRequest.builder().append(patch.append).remove(patch.remove).build());
+                    contents.put(list.getId(), target);
+                }));
+                totals.patched++;
+                totals.added += patch.append.size();
+                totals.removed += patch.remove.size();
+            } else {
+                contents.put(list.getId(), target);
+            }
+        }
+
+        // A list that failed to save is left out of the rule, a list that failed to patch is still used
+        TaskGraph.Task rule = graph.add("Sync rule of " + namePrefix, () -> switchRule(ruleSync, slots))
+                .after(changes)
+                .nonIdempotent();
+        // Rule has to stop referring to emptied lists before they can be deleted
+        for (GatewayListDto list : emptied) {
+            graph.add("Remove list " + list.getName(), () -> listService.deleteList(list)).requires(rule);
+            totals.deleted++;
+            totals.removed += items.getOrDefault(list.getId(), List.of()).size();
+        }
+    }
+
+    private TaskGraph.Task planRewriteGroup(TaskGraph graph,
+                                            Map<UUID, List<String>> contents,
+                                            RewriteJournal rewriteJournal,
+                                            String namePrefix,
+                                            List<CreateListRequest> requests,
+                                            Predicate<SortedMap<Integer, GatewayListDto>> ruleSync) {
+        int slotCount = requests.stream().mapToInt(request -> listNumber(request.name(), namePrefix)).max().orElse(0);
+        GatewayListDto[] slots = new GatewayListDto[slotCount];
+        List<TaskGraph.Task> creates = new ArrayList<>();
+        for (CreateListRequest request : requests) {
+            int slot = listNumber(request.name(), namePrefix) - 1;
+            List<String> items = request.items().stream().map(Item::getValue).toList();
+            GatewayListDto created = rewriteJournal.created().get(request.name());
+            if (!rewriteJournal.pending().contains(request.name()) && created != null && created.getCount() == items.size()) {
+                slots[slot] = created;
+                contents.put(created.getId(), items);
+                rewriteJournal.reused().add(created.getId());
+                continue;
+            }
+            creates.add(graph.add("Create list " + request.name(), cost(request.items().size()), () -> {
+                slots[slot] = listService.saveList(request);
+                rewriteJournal.journal().done("create", request.name(), String.valueOf(slots[slot].getId()));
+                contents.put(slots[slot].getId(), items);
+            }).nonIdempotent());
+        }
+        return graph.add("Switch rule of " + namePrefix, () -> switchRule(ruleSync, slots))
+                .requires(creates)
+                .nonIdempotent();
+    }
+
+    /**
+     * @param slots lists by number minus one, null where there is no list
+     */
+    private static void switchRule(Predicate<SortedMap<Integer, GatewayListDto>> ruleSync, GatewayListDto[] slots) {
+        SortedMap<Integer, GatewayListDto> lists = new TreeMap<>();
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slots[slot] != null) {
+                lists.put(slot + 1, slots[slot]);
+            }
+        }
+        if (!ruleSync.test(lists)) {
+            throw new IllegalStateException("Rule was not switched to new lists");
+        }
+    }
+
+    /**
+     * One request, heavier with more items to send
+     */
+    private double cost(int items) {
+        return 1 + (double) items / listSharding.listSize();
+    }
+
+    /**
+     * Items of the lists, from the snapshot where the list did not change since it was taken
+     */
+    @SneakyThrows
+    private Map<UUID, List<String>> fetchItems(List<GatewayListDto> lists) {
+        Map<UUID, ListContent> snapshot = new HashMap<>();
+        snapshotStore.read(snapshotTarget(), in -> {
+                    UUID id = new UUID(in.readLong(), in.readLong());
+                    String updatedAt = in.readUTF();
+                    int count = in.readInt();
+                    int size = in.readInt();
+                    List<String> items = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        items.add(in.readUTF());
+                    }
+                    return new ListContent(id, updatedAt, count, items);
+                })
+                .ifPresent(read -> read.entries().forEach(entry -> snapshot.put(entry.id(), entry)));
+
+        Map<UUID, List<String>> items = new HashMap<>();
+        List<GatewayListDto> changed = new ArrayList<>();
+        for (GatewayListDto list : lists) {
+            ListContent cached = snapshot.get(list.getId());
+            if (cached != null && cached.count() == list.getCount() && cached.updatedAt().equals(list.getUpdatedAt())) {
+                items.put(list.getId(), cached.items());
+            } else {
+                changed.add(list);
+            }
+        }
+        Log.io("Reading items of %s existing lists, %s taken from the snapshot...".formatted(changed.size(), items.size()));
+        @Cleanup ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        Map<UUID, Future<List<String>>> futures = new LinkedHashMap<>();
+        for (GatewayListDto list : changed) {
+            futures.put(list.getId(), executor.submit(() -> cloudflareListClient.getListItems(list.getId())));
+        }
+        for (Map.Entry<UUID, Future<List<String>>> future : futures.entrySet()) {
+            items.put(future.getKey(), future.getValue().get());
+        }
+        return items;
+    }
+
+    private static String snapshotTarget() {
+        return "cloudflare-lists|" + CLIENT_ID;
+    }
+
+    private static String journalTarget() {
+        return "cloudflare-rewrite|" + CLIENT_ID;
+    }
+
+    /**
+     * @return number of a list named "prefix N", or -1 if the list is not of this prefix
+     */
+    private static int listNumber(String name, String namePrefix) {
+        if (name == null || !name.startsWith(namePrefix + " ")) {
+            return -1;
+        }
+        String number = name.substring(namePrefix.length() + 1);
+        if (number.isEmpty() || !number.chars().allMatch(Character::isDigit)) {
+            return -1;
+        }
+        return Integer.parseInt(number);
+    }
+
+    private static String overrideIpOf(String name) {
+        String prefix = overrideListNamePrefix("");
+        if (name == null || !name.startsWith(prefix)) {
+            return null;
+        }
+        String rest = name.substring(prefix.length());
+        int space = rest.lastIndexOf(' ');
+        return space > 0 ? rest.substring(0, space) : null;
+    }
+
+}
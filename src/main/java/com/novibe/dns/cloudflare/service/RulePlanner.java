@@ -0,0 +1,76 @@
+package com.novibe.dns.cloudflare.service;
+
+import com.novibe.common.util.EnvParser;
+import com.novibe.dns.cloudflare.http.dto.response.list.GatewayListDto;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static com.novibe.common.config.EnvironmentVariables.RULE_MAX_EXPRESSION;
+import static com.novibe.common.config.EnvironmentVariables.RULE_MAX_LISTS;
+
+/**
+ * Packs the lists of one rule into several rules, each within RULE_MAX_LISTS lists and RULE_MAX_EXPRESSION characters of traffic expression.
+ * Part K holds a fixed range of list numbers, and list numbers are stable shards, so a changed list repacks only its own part.
+ * The first part keeps the base rule name, the next ones are named "base #2", "base #3" and so on.
+ */
+@Component
+public class RulePlanner {
+
+    private static final String CLAUSE = "any(dns.domains[*] in $%s)";
+    private static final String SEPARATOR = " or ";
+
+    private final int listsPerRule;
+
+    public record RulePart(String name, String traffic) {
+    }
+
+    public RulePlanner() {
+        int maxLists = EnvParser.parseInt(RULE_MAX_LISTS, 50);
+        int maxExpression = EnvParser.parseInt(RULE_MAX_EXPRESSION, 4096);
+        int clauseLength = CLAUSE.formatted(new UUID(0, 0)).length();
+        this.listsPerRule = Math.max(1, Math.min(maxLists, (maxExpression + SEPARATOR.length()) / (clauseLength + SEPARATOR.length())));
+    }
+
+    /**
+     * @param lists lists of the rule by list number
+     * @return parts that have lists, ordered by the list numbers they hold
+     */
+    public List<RulePart> plan(String baseName, SortedMap<Integer, GatewayListDto> lists) {
+        SortedMap<Integer, List<GatewayListDto>> parts = new TreeMap<>();
+        lists.forEach((number, list) -> parts.computeIfAbsent((number - 1) / listsPerRule, part -> new ArrayList<>()).add(list));
+        List<RulePart> plan = new ArrayList<>();
+        for (Map.Entry<Integer, List<GatewayListDto>> part : parts.entrySet()) {
+            plan.add(new RulePart(partName(baseName, part.getKey()), trafficExpression(part.getValue())));
+        }
+        return plan;
+    }
+
+    /**
+     * @return true if the rule name is the base name or the name of one of its parts
+     */
+    public static boolean isPartOf(String baseName, String name) {
+        if (name == null || !name.startsWith(baseName)) {
+            return false;
+        }
+        String rest = name.substring(baseName.length());
+        return rest.isEmpty() || rest.startsWith(" #") && rest.length() > 2 && rest.substring(2).chars().allMatch(Character::isDigit);
+    }
+
+    private static String partName(String baseName, int part) {
+        return part == 0 ? baseName : baseName + " #" + (part + 1);
+    }
+
+    private static String trafficExpression(List<GatewayListDto> lists) {
+        return lists.stream()
+                .map(list -> CLAUSE.formatted(list.getId()))
+                .collect(Collectors.joining(SEPARATOR));
+    }
+
+}
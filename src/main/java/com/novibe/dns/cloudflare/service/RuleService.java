@@ -6,16 +6,17 @@ import com.novibe.dns.cloudflare.http.dto.request.CreateRuleRequest;
 import com.novibe.dns.cloudflare.http.dto.response.list.GatewayListDto;
 import com.novibe.dns.cloudflare.http.dto.response.rule.GatewayRuleDto;
 import com.novibe.dns.cloudflare.http.dto.response.rule.SingleRuleApiResponse;
-import lombok.Cleanup;
 import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.StructuredTaskScope;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.BiFunction;
 
 @Service
 @RequiredArgsConstructor
@@ -24,41 +25,97 @@ public class RuleService {
     private static final String RULES_LIST_NAME_PREFIX = "Rules set by script";
 
     private final CloudflareRuleClient cloudflareRuleClient;
+    private final RulePlanner rulePlanner;
     private final String sessionId;
 
-    public void createNewBlockingRule(List<GatewayListDto> lists) {
-        String traffic = makeTrafficExpression(lists);
-        CreateRuleRequest rule = CreateRuleRequest.builder()
-                .name(RULES_LIST_NAME_PREFIX)
+    /**
+     * Rules of the account, read once and passed to the sync methods of one run
+     */
+    public List<GatewayRuleDto> getRules() {
+        return cloudflareRuleClient.iterateRules().stream().toList();
+    }
+
+    public boolean syncBlockingRule(SortedMap<Integer, GatewayListDto> lists, List<GatewayRuleDto> rules) {
+        return syncRules(RULES_LIST_NAME_PREFIX, lists, this::blockingRule, rules);
+    }
+
+    public boolean syncOverrideRule(SortedMap<Integer, GatewayListDto> lists, String overrideIp, List<GatewayRuleDto> rules) {
+        return syncRules(overrideRuleName(overrideIp), lists, (name, traffic) -> overrideRule(name, traffic, overrideIp), rules);
+    }
+
+    /**
+     * Points the rules of the base name to exactly the lists, packed into parts by {@link RulePlanner}.
+     * Only parts whose lists changed are sent. An existing rule is updated in place, so DNS traffic switches
+     * to the new lists in one request and the old lists stay in use until then.
+     * Parts that are not needed anymore are removed, all of them when there are no lists.
+     *
+     * @param lists lists by list number
+     * @param rules rules of the account before the sync
+     * @return false if a rule may still refer to the old lists, which then must not be deleted
+     */
+    private boolean syncRules(String baseName,
+                              SortedMap<Integer, GatewayListDto> lists,
+                              BiFunction<String, String, CreateRuleRequest> ruleForTraffic,
+                              List<GatewayRuleDto> rules) {
+        List<GatewayRuleDto> existing = rules.stream()
+                .filter(rule -> RulePlanner.isPartOf(baseName, rule.getName()))
+                .toList();
+        Set<GatewayRuleDto> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        boolean switched = true;
+        for (RulePlanner.RulePart part : rulePlanner.plan(baseName, lists)) {
+            List<GatewayRuleDto> named = existing.stream()
+                    .filter(rule -> rule.getName().equals(part.name()))
+                    .toList();
+            GatewayRuleDto rule = named.stream()
+                    .filter(candidate -> part.traffic().equals(candidate.getTraffic()))
+                    .findFirst()
+                    .orElse(named.isEmpty() ? null : named.getFirst());
+            SingleRuleApiResponse result = null;
+            if (rule == null) {
+                Log.io("Posting rule: " + part.name());
+                result = cloudflareRuleClient.createBlockingRule(ruleForTraffic.apply(part.name(), part.traffic()));
+            } else {
+                kept.add(rule);
+                if (!part.traffic().equals(rule.getTraffic())) {
+                    Log.io("Switching rule to new lists: " + part.name());
+                    result = cloudflareRuleClient.updateRule(rule.getId(), ruleForTraffic.apply(part.name(), part.traffic()));
+                }
+            }
+            if (result != null && !result.isSuccess()) {
+                Log.fail("Failed to set rule %s: %s".formatted(part.name(), result.getErrors()));
+                switched = false;
+            }
+        }
+        if (!switched) {
+            return false;
+        }
+        for (GatewayRuleDto rule : existing) {
+            if (kept.contains(rule)) {
+                continue;
+            }
+            SingleRuleApiResponse result = cloudflareRuleClient.removeRuleById(rule.getId());
+            if (!result.isSuccess()) {
+                Log.fail("Failed to remove outdated rule %s: %s".formatted(rule.getName(), result.getErrors()));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CreateRuleRequest blockingRule(String name, String traffic) {
+        return CreateRuleRequest.builder()
+                .name(name)
                 .action("block")
                 .description(sessionId)
                 .filters(List.of("dns"))
                 .enabled(true)
                 .traffic(traffic)
                 .build();
-        Log.io("Posting new blocking rule");
-        SingleRuleApiResponse result = cloudflareRuleClient.createBlockingRule(rule);
-        if (!result.isSuccess()) {
-            Log.fail("Failed to set blocking rule: " + result.getErrors());
-        }
-    }
-
-    @SneakyThrows
-    @SuppressWarnings("preview")
-    public void createNewOverrideRules(Map<String, List<GatewayListDto>> lists) {
-        @Cleanup var scope = StructuredTaskScope.open();
-        for (Map.Entry<String, List<GatewayListDto>> entry : lists.entrySet()) {
-            String overrideIp = entry.getKey();
-            List<GatewayListDto> list = entry.getValue();
-            scope.fork(() -> createNewOverrideRule(list, overrideIp));
-        }
-        scope.join();
     }
 
-    private void createNewOverrideRule(List<GatewayListDto> lists, String overrideIp) {
-        String traffic = makeTrafficExpression(lists);
-        CreateRuleRequest rule = CreateRuleRequest.builder()
-                .name(RULES_LIST_NAME_PREFIX + " override to IP -> " + overrideIp)
+    private CreateRuleRequest overrideRule(String name, String traffic, String overrideIp) {
+        return CreateRuleRequest.builder()
+                .name(name)
                 .action("override")
                 .description(sessionId)
                 .filters(List.of("dns"))
@@ -66,42 +123,30 @@ public class RuleService {
                 .traffic(traffic)
                 .ruleSettings(new CreateRuleRequest.RuleSettings(List.of(overrideIp)))
                 .build();
-        Log.io("Posting new override rule for IP: " + overrideIp);
-        SingleRuleApiResponse result = cloudflareRuleClient.createBlockingRule(rule);
-        if (!result.isSuccess()) {
-            Log.fail("Failed to set override rule: " + result.getErrors());
-        }
     }
 
-    public void removeOldRules() {
-        List<String> oldIds = cloudflareRuleClient.getRules().getResult().stream()
-                .filter(rule -> rule.getName().startsWith(RULES_LIST_NAME_PREFIX))
-                .filter(rule -> !sessionId.equals(rule.getDescription()))
-                .map(GatewayRuleDto::getId)
-                .toList();
-        Log.io("Removing old rules...");
-        int counter = 0;
-        for (String id : oldIds) {
-            SingleRuleApiResponse result = cloudflareRuleClient.removeRuleById(id);
-            if (!result.isSuccess()) {
-                Log.fail("Failed to remove old rule with id %s: %s".formatted(id, result.getErrors()));
-            } else {
-                Log.progress(++counter + "/" + oldIds.size());
-            }
-        }
-        Log.common("\n%s of %s old rules have been removed".formatted(counter, oldIds.size()));
-
+    private static String overrideRuleName(String overrideIp) {
+        return RULES_LIST_NAME_PREFIX + " override to IP -> " + overrideIp;
     }
 
-    private String makeTrafficExpression(List<GatewayListDto> lists) {
-        List<String> listIds = lists.stream()
-                .map(GatewayListDto::getId)
-                .map(UUID::toString)
+    /**
+     * Rules of the script other than the parts of the blocking rule and of the override rules of the given IPs
+     */
+    public List<GatewayRuleDto> findStaleRules(List<GatewayRuleDto> rules, Collection<String> overrideIps) {
+        List<String> current = new ArrayList<>();
+        current.add(RULES_LIST_NAME_PREFIX);
+        overrideIps.forEach(ip -> current.add(overrideRuleName(ip)));
+        return rules.stream()
+                .filter(rule -> rule.getName().startsWith(RULES_LIST_NAME_PREFIX))
+                .filter(rule -> current.stream().noneMatch(baseName -> RulePlanner.isPartOf(baseName, rule.getName())))
                 .toList();
+    }
 
-        return listIds.stream()
-                .map("any(dns.domains[*] in $%s)"::formatted)
-                .collect(Collectors.joining(" or "));
+    public void deleteRule(GatewayRuleDto rule) {
+        SingleRuleApiResponse result = cloudflareRuleClient.removeRuleById(rule.getId());
+        if (!result.isSuccess()) {
+            throw new IllegalStateException("Failed to remove rule %s: %s".formatted(rule.getName(), result.getErrors()));
+        }
     }
 
 }
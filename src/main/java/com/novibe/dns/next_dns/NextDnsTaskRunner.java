@@ -3,24 +3,36 @@ package com.novibe.dns.next_dns;
 import com.novibe.common.DnsTaskRunner;
 import com.novibe.common.data_sources.HostsBlockListsLoader;
 import com.novibe.common.data_sources.HostsOverrideListsLoader;
+import com.novibe.common.domains.BlocklistPipeline;
+import com.novibe.common.domains.DesiredState;
+import com.novibe.common.domains.DesiredStateMerger;
+import com.novibe.common.domains.DomainSet;
+import com.novibe.common.domains.FingerprintStore;
+import com.novibe.common.domains.StateFingerprint;
 import com.novibe.common.util.EnvParser;
 import com.novibe.common.util.Log;
 import com.novibe.dns.next_dns.config.NextDnsProfile;
 import com.novibe.dns.next_dns.config.NextDnsProfileParser;
 import com.novibe.dns.next_dns.http.NextDnsClientFactory;
 import com.novibe.dns.next_dns.http.NextDnsDenyClient;
+import com.novibe.dns.next_dns.http.NextDnsRateLimiters;
 import com.novibe.dns.next_dns.http.NextDnsRewriteClient;
-import com.novibe.dns.next_dns.http.dto.request.CreateRewriteDto;
 import com.novibe.dns.next_dns.service.NextDnsDenyService;
 import com.novibe.dns.next_dns.service.NextDnsRewriteService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.novibe.common.config.EnvironmentVariables.BLOCK;
+import static com.novibe.common.config.EnvironmentVariables.CONFLICT_POLICY;
+import static com.novibe.common.config.EnvironmentVariables.FORCE_REWRITE;
 import static com.novibe.common.config.EnvironmentVariables.REDIRECT;
 
 @Service
@@ -29,9 +41,13 @@ public class NextDnsTaskRunner implements DnsTaskRunner {
 
     private final HostsBlockListsLoader blockListsLoader;
     private final HostsOverrideListsLoader overrideListsLoader;
+    private final BlocklistPipeline blocklistPipeline;
+    private final DesiredStateMerger desiredStateMerger;
     private final NextDnsRewriteService nextDnsRewriteService;
     private final NextDnsDenyService nextDnsDenyService;
     private final NextDnsClientFactory clientFactory;
+    private final FingerprintStore fingerprintStore;
+    private final NextDnsRateLimiters rateLimiters;
 
     @Override
     public void run() {
@@ -59,80 +75,56 @@ public class NextDnsTaskRunner implements DnsTaskRunner {
         List<String> rewriteSources = EnvParser.parse(REDIRECT);
 
         // Load data from sources once (not per profile!)
-        List<String> blocks = new ArrayList<>();
-        List<HostsOverrideListsLoader.BypassRoute> overridesBase = new ArrayList<>();
+        DomainSet blocks = new DomainSet();
+        List<LinkedHashSet<HostsOverrideListsLoader.BypassRoute>> rewritesBySource = List.of();
 
         if (!blockSources.isEmpty()) {
             Log.step("Obtain block lists from %s sources".formatted(blockSources.size()));
-            blocks = blockListsLoader.fetchWebsites(blockSources);
-            Log.common("Loaded %s domains to block".formatted(blocks.size()));
+            blocks = blocklistPipeline.prepare(blockListsLoader.fetchWebsites(blockSources));
         } else {
             Log.fail("No block sources provided");
         }
 
         if (!rewriteSources.isEmpty()) {
             Log.step("Obtain rewrite lists from %s sources".formatted(rewriteSources.size()));
-            overridesBase = overrideListsLoader.fetchWebsites(rewriteSources);
-            Log.common("Loaded %s domains to redirect".formatted(overridesBase.size()));
+            rewritesBySource = overrideListsLoader.fetchSources(rewriteSources);
         } else {
             Log.fail("No rewrite sources provided");
         }
 
-        // Process each profile
+        DesiredState desired = desiredStateMerger.merge(blocks, rewritesBySource);
+        Log.common("Loaded %s domains to block and %s domains to redirect"
+                .formatted(desired.blocks().size(), desired.routes().size()));
+        List<HostsOverrideListsLoader.BypassRoute> overridesBase = desired.routeList();
+        // Hashed once, profiles differ only in their settings
+        String contentHash = StateFingerprint.contentHash(desired);
+
+        // Profiles run at the same time, profiles of one API key share its pacer and take turns in it
+        long keys = profiles.stream().map(NextDnsProfile::authSecret).distinct().count();
+        Log.common("Processing %s profiles over %s API keys concurrently".formatted(profiles.size(), keys));
+        boolean blocksProvided = !blockSources.isEmpty();
+        boolean rewritesProvided = !rewriteSources.isEmpty();
+        List<Future<Boolean>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < profiles.size(); i++) {
+                NextDnsProfile profile = profiles.get(i);
+                int number = i + 1;
+                results.add(executor.submit(() ->
+                        processProfile(profile, number, profiles.size(), desired, contentHash, overridesBase, blocksProvided, rewritesProvided)));
+            }
+        }
         int successCount = 0;
         int errorCount = 0;
-        
-        for (int i = 0; i < profiles.size(); i++) {
-            NextDnsProfile profile = profiles.get(i);
-            
-            try {
-                Log.global("Processing Profile %d/%d: %s".formatted(i + 1, profiles.size(), profile.getDisplayName()));
-                
-                // Create HTTP clients for this profile
-                NextDnsDenyClient denyClient = clientFactory.createDenyClient(profile.clientId(), profile.authSecret());
-                NextDnsRewriteClient rewriteClient = clientFactory.createRewriteClient(profile.clientId(), profile.authSecret());
-
-                // Process blocks
-                if (!blockSources.isEmpty()) {
-                    Log.step("Processing denylist for profile %s".formatted(profile.clientId()));
-                    List<String> filteredBlocklist = nextDnsDenyService.dropExistingDenys(denyClient, new ArrayList<>(blocks));
-                    Log.common("Prepared %s domains to block".formatted(filteredBlocklist.size()));
-                    nextDnsDenyService.saveDenyList(denyClient, filteredBlocklist);
-                }
-
-                // Process rewrites with profile-specific EXTERNAL_IP
-                if (!rewriteSources.isEmpty()) {
-                    Log.step("Processing rewrites for profile %s".formatted(profile.clientId()));
-                    
-                    // Apply profile-specific EXTERNAL_IP if set
-                    List<HostsOverrideListsLoader.BypassRoute> overrides = 
-                            overrideListsLoader.applyExternalIp(new ArrayList<>(overridesBase), profile.externalIp());
-                    
-                    Map<String, CreateRewriteDto> requests = nextDnsRewriteService.buildNewRewrites(overrides);
-                    List<CreateRewriteDto> createRewriteDtos = nextDnsRewriteService.cleanupOutdated(rewriteClient, requests);
-                    Log.common("Prepared %s domains to rewrite".formatted(createRewriteDtos.size()));
-                    
-                    nextDnsRewriteService.saveRewrites(rewriteClient, createRewriteDtos);
-                }
-
-                // Remove all settings if no sources provided
-                if (blockSources.isEmpty() && rewriteSources.isEmpty()) {
-                    Log.step("Remove settings for profile %s".formatted(profile.clientId()));
-                    nextDnsDenyService.removeAll(denyClient);
-                    nextDnsRewriteService.removeAll(rewriteClient);
-                }
-
-                Log.common("✓ Profile %s processed successfully".formatted(profile.clientId()));
+        for (Future<Boolean> result : results) {
+            if (result.resultNow()) {
                 successCount++;
-                
-            } catch (Exception e) {
-                Log.fail("✗ Error processing profile %s: %s".formatted(profile.clientId(), e.getMessage()));
-                e.printStackTrace();
+            } else {
                 errorCount++;
-                // Continue with next profile
             }
         }
 
+        rateLimiters.save();
+
         // Summary
         Log.global("FINISHED");
         Log.common("Summary: %d profiles processed successfully, %d with errors".formatted(successCount, errorCount));
@@ -142,4 +134,77 @@ public class NextDnsTaskRunner implements DnsTaskRunner {
         }
     }
 
+    /**
+     * @return false if the profile failed, the error is logged and other profiles are not affected
+     */
+    private boolean processProfile(NextDnsProfile profile,
+                                   int number,
+                                   int total,
+                                   DesiredState desired,
+                                   String contentHash,
+                                   List<HostsOverrideListsLoader.BypassRoute> overridesBase,
+                                   boolean blocksProvided,
+                                   boolean rewritesProvided) {
+        try {
+            Log.global("Processing Profile %d/%d: %s".formatted(number, total, profile.getDisplayName()));
+
+            // NextDNS has no field to mirror the fingerprint in, so only the local record is checked
+            String target = "nextdns|" + profile.clientId();
+            String fingerprint = StateFingerprint.of(contentHash, Map.of(
+                    "EXTERNAL_IP", String.valueOf(profile.externalIp()),
+                    "CONFLICT_POLICY", String.valueOf(CONFLICT_POLICY),
+                    "BLOCK", String.valueOf(blocksProvided),
+                    "REDIRECT", String.valueOf(rewritesProvided)));
+            boolean forceRewrite = "true".equalsIgnoreCase(FORCE_REWRITE);
+            if (!forceRewrite && fingerprintStore.lastApplied(target).filter(fingerprint::equals).isPresent()) {
+                Log.common("✓ Profile %s: nothing changed since the last successful run, skipping".formatted(profile.clientId()));
+                return true;
+            }
+
+            // Create HTTP clients for this profile
+            NextDnsDenyClient denyClient = clientFactory.createDenyClient(profile.clientId(), profile.authSecret());
+            NextDnsRewriteClient rewriteClient = clientFactory.createRewriteClient(profile.clientId(), profile.authSecret());
+
+            // Set to false by any write that failed, the fingerprint is then not recorded and the next run retries
+            boolean complete = true;
+
+            // Process blocks
+            if (blocksProvided) {
+                Log.step("Processing denylist for profile %s".formatted(profile.clientId()));
+                complete &= nextDnsDenyService.syncDenyList(denyClient, desired.blocks(), fingerprint);
+            }
+
+            // Process rewrites with profile-specific EXTERNAL_IP
+            if (rewritesProvided) {
+                Log.step("Processing rewrites for profile %s".formatted(profile.clientId()));
+
+                // Apply profile-specific EXTERNAL_IP if set
+                List<HostsOverrideListsLoader.BypassRoute> overrides =
+                        overrideListsLoader.applyExternalIp(overridesBase, profile.externalIp());
+
+                complete &= nextDnsRewriteService.syncRewrites(rewriteClient, overrides, fingerprint);
+            }
+
+            // Remove all settings if no sources provided
+            if (!blocksProvided && !rewritesProvided) {
+                Log.step("Remove settings for profile %s".formatted(profile.clientId()));
+                complete &= nextDnsDenyService.removeAll(denyClient);
+                complete &= nextDnsRewriteService.removeAll(rewriteClient);
+            }
+
+            if (!complete) {
+                Log.fail("✗ Profile %s: some requests failed, it is completed by the next run".formatted(profile.clientId()));
+                return false;
+            }
+            fingerprintStore.record(target, fingerprint);
+            Log.common("✓ Profile %s processed successfully".formatted(profile.clientId()));
+            return true;
+
+        } catch (Exception e) {
+            Log.fail("✗ Error processing profile %s: %s".formatted(profile.clientId(), e.getMessage()));
+            e.printStackTrace();
+            return false;
+        }
+    }
+
 }
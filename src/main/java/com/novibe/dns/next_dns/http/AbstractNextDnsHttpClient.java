@@ -2,22 +2,32 @@ package com.novibe.dns.next_dns.http;
 
 import com.google.gson.Gson;
 import com.novibe.common.HttpRequestSender;
+import com.novibe.common.TokenBucketLimiter;
+import com.novibe.common.exception.NextDnsHttpError;
 import com.novibe.common.util.Log;
 
 import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
 
 public abstract class AbstractNextDnsHttpClient extends HttpRequestSender {
 
     private final String profileId;
     private final String authSecret;
+    private final String keyId;
+    private TokenBucketLimiter rateLimiter;
 
     protected AbstractNextDnsHttpClient(String profileId, String authSecret) {
         this.profileId = profileId;
         this.authSecret = authSecret;
+        this.keyId = NextDnsRateLimiters.keyId(authSecret);
     }
 
     protected abstract String path();
 
+    public String profileId() {
+        return profileId;
+    }
+
     @Override
     protected String apiUrl() {
         return "https://api.nextdns.io/profiles/%s".formatted(profileId);
@@ -33,14 +43,42 @@ public abstract class AbstractNextDnsHttpClient extends HttpRequestSender {
         return authSecret;
     }
 
+    /**
+     * NextDNS limits every API key on its own, a key hitting its limit must not hold back the others
+     */
+    @Override
+    protected String limiterKey(String host) {
+        return host + " key " + keyId;
+    }
+
     @Override
     protected final void react401() {
         Log.fail("Invalid api key!");
+        // Fails only the profile, other profiles go on
+        throw new NextDnsHttpError(401, "Invalid api key of profile " + profileId);
     }
 
     @Override
     protected void react403() {
         Log.fail("Invalid api key!");
+        throw new NextDnsHttpError(403, "Invalid api key of profile " + profileId);
+    }
+
+    @Override
+    protected void beforeAttempt() throws InterruptedException {
+        rateLimiter.acquire(profileId);
+    }
+
+    @Override
+    protected void afterAttempt(HttpResponse<?> response) {
+        rateLimiter.onResponse(response.statusCode(), response.headers());
+    }
+
+    /**
+     * Public method to inject the request pacer of the API key, shared by all clients of the key
+     */
+    public void injectRateLimiter(TokenBucketLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
     }
 
     /**
@@ -15,13 +15,14 @@ public class NextDnsClientFactory {
 
     private final HttpClient httpClient;
     private final Gson gson;
+    private final NextDnsRateLimiters rateLimiters;
 
     /**
      * Creates a NextDnsRewriteClient for the specified profile
      */
     public NextDnsRewriteClient createRewriteClient(String profileId, String authSecret) {
         NextDnsRewriteClient client = new NextDnsRewriteClient(profileId, authSecret);
-        injectDependencies(client);
+        injectDependencies(client, authSecret);
         return client;
     }
 
@@ -30,15 +31,16 @@ public class NextDnsClientFactory {
      */
     public NextDnsDenyClient createDenyClient(String profileId, String authSecret) {
         NextDnsDenyClient client = new NextDnsDenyClient(profileId, authSecret);
-        injectDependencies(client);
+        injectDependencies(client, authSecret);
         return client;
     }
 
     /**
-     * Injects HttpClient and Gson dependencies into the client
+     * Injects HttpClient, Gson and the request pacer of the API key into the client
      */
-    private void injectDependencies(AbstractNextDnsHttpClient client) {
+    private void injectDependencies(AbstractNextDnsHttpClient client, String authSecret) {
         client.injectHttpClient(httpClient);
         client.injectGson(gson);
+        client.injectRateLimiter(rateLimiters.forKey(authSecret));
     }
 }
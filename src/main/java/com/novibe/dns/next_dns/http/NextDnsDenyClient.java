@@ -4,6 +4,7 @@ import com.novibe.dns.next_dns.http.dto.request.CreateDenyDto;
 import com.novibe.dns.next_dns.http.dto.response.deny.DenyDto;
 import com.novibe.dns.next_dns.http.dto.response.deny.MultiDenyResponse;
 import com.novibe.dns.next_dns.http.dto.response.deny.SingleDenyResponse;
+import org.jspecify.annotations.Nullable;
 
 import java.util.List;
 
@@ -22,6 +23,13 @@ public class NextDnsDenyClient extends AbstractNextDnsHttpClient {
         return post(path(), rewriteDto, SingleDenyResponse.class);
     }
 
+    /**
+     * Replaces the whole denylist with the entries in one request
+     */
+    public @Nullable MultiDenyResponse replaceDenylist(List<CreateDenyDto> denys) {
+        return put(path(), denys, MultiDenyResponse.class);
+    }
+
 
     public SingleDenyResponse deleteDenyById(String id) {
         return delete(path() + "/" + id, SingleDenyResponse.class);
@@ -7,55 +7,136 @@ import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
 
 import java.time.Duration;
-import java.time.temporal.ChronoUnit;
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static java.util.Optional.ofNullable;
 
+/**
+ * Sends a batch of requests with several of them in flight. Pacing to the rate limit of the API key
+ * is done by the client itself, see {@link NextDnsRateLimiters}, so requests never wait for a whole window
+ * unless the API answers 429. The client also sends a request again after 429, once the limit resets,
+ * so a 429 that reaches this class means the key stays limited and is not retried here.
+ */
 @UtilityClass
 public class NextDnsRateLimitedApiProcessor {
 
+    /**
+     * Requests in flight, enough to hide network latency at the rate of one API key
+     */
+    private static final int IN_FLIGHT = 4;
+    private static final Duration TIMEOUT_DELAY = Duration.ofSeconds(5);
+    private static final int TIMEOUT_ATTEMPTS = 3;
 
+    /**
+     * A request failing with an error other than a timeout, or timing out on every attempt, stops the batch: requests not sent yet
+     * are dropped and the error is thrown once the requests in flight are done.
+     *
+     * @param label whose requests these are, e.g. the profile, for progress
+     * @return responses of the requests that succeeded, null for a request answered without a body
+     */
+    public <D, R extends NextDnsResponse<?>> List<R> callApi(String label, List<D> requestList, Function<D, R> request) {
+        return callApi(label, requestList, request, requestDto -> {});
+    }
+
+    /**
+     * @param completed called with every request that succeeded, e.g. to record it in a journal
+     */
+    @SneakyThrows
+    public <D, R extends NextDnsResponse<?>> List<R> callApi(String label, List<D> requestList, Function<D, R> request, Consumer<D> completed) {
+        List<R> succeeded = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger successCounter = new AtomicInteger();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Semaphore inFlight = new Semaphore(IN_FLIGHT);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (D requestDto : requestList) {
+                inFlight.acquire();
+                if (failure.get() != null) {
+                    break;
+                }
+                executor.submit(() -> {
+                    try {
+                        if (send(requestDto, request, succeeded)) {
+                            completed.accept(requestDto);
+                            Log.progress("%s: success progress %s/%s".formatted(label, successCounter.incrementAndGet(), requestList.size()));
+                        }
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return new ArrayList<>(succeeded);
+    }
+
+    /**
+     * Sends one request that replaces a whole array of the profile. A timeout is retried as for single requests.
+     * A rate limit the client could not wait out is thrown, falling back to requests per entry would only spend more of it.
+     *
+     * @return false if the API rejected it, the caller then falls back to requests per entry
+     */
     @SneakyThrows
-    public <D, R extends NextDnsResponse<?>> void callApi(List<D> requestList, Function<D, R> request) {
-        int waitSeconds = 60;
-        Queue<D> requestQueue = new ArrayDeque<>(requestList);
-        int successCounter = 0;
-        int waveCounter = 0;
-        while (!requestQueue.isEmpty()) {
-            D requestDto = requestQueue.poll();
+    public boolean callBulk(String label, Supplier<? extends NextDnsResponse<?>> request) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                NextDnsResponse<?> response = request.get();
+                if (response != null && response.getErrors() != null) {
+                    Log.fail("%s: bulk request rejected: %s, sending entries one by one".formatted(label, response.getErrors()));
+                    return false;
+                }
+                return true;
+            } catch (NextDnsHttpError e) {
+                if (e.getCode() == 524 && attempt < TIMEOUT_ATTEMPTS) {
+                    Log.common("Code 524. Api timed out, request is sent again in %s seconds".formatted(TIMEOUT_DELAY.toSeconds()));
+                    Thread.sleep(TIMEOUT_DELAY);
+                } else if (e.getCode() == 429 || e.getCode() == 401 || e.getCode() == 403) {
+                    throw e;
+                } else {
+                    Log.fail("%s: bulk request rejected with code %s, sending entries one by one".formatted(label, e.getCode()));
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the API answered with errors
+     */
+    @SneakyThrows
+    private <D, R extends NextDnsResponse<?>> boolean send(D requestDto, Function<D, R> request, List<R> succeeded) {
+        for (int attempt = 1; ; attempt++) {
             try {
                 R response = request.apply(requestDto);
                 if (ofNullable(response).map(r -> r.getErrors()).isPresent()) {
                     Log.fail("Failed request: " + response.getErrors());
-                } else {
-                    Log.progress("Current success progress: " + ++successCounter + "/" + requestList.size());
-                    waveCounter++;
+                    return false;
                 }
+                succeeded.add(response);
+                return true;
             } catch (NextDnsHttpError e) {
-                if (e.getCode() == 524 || e.getCode() == 429) {
-                    requestQueue.add(requestDto);
-                    Log.common("Sending speed: %s requests per second"
-                            .formatted((double) waveCounter / 60));
-                    Log.common("Code %s. Api rate limit has reached. Waiting for reset: %s seconds"
-                            .formatted(e.getCode(), waitSeconds));
-                    runWaitTimer(waitSeconds);
-                    Log.common("Continue...");
-                    waveCounter = 0;
+                if (e.getCode() == 524 && attempt < TIMEOUT_ATTEMPTS) {
+                    Log.common("Code 524. Api timed out, request is sent again in %s seconds".formatted(TIMEOUT_DELAY.toSeconds()));
+                    Thread.sleep(TIMEOUT_DELAY);
                 } else {
                     Log.fail(e.toString());
-                    System.exit(1);
+                    throw e;
                 }
             }
         }
     }
 
-    @SneakyThrows
-    private void runWaitTimer(int seconds) {
-        Thread.sleep(Duration.of(seconds, ChronoUnit.SECONDS));
-    }
-
 }
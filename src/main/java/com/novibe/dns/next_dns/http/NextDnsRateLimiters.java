@@ -0,0 +1,104 @@
+package com.novibe.dns.next_dns.http;
+
+import com.novibe.common.TokenBucketLimiter;
+import com.novibe.common.config.EnvironmentVariables;
+import com.novibe.common.util.EnvParser;
+import com.novibe.common.util.Log;
+import lombok.SneakyThrows;
+import org.jspecify.annotations.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.novibe.common.config.EnvironmentVariables.NEXTDNS_RATE_LIMIT;
+import static java.util.Objects.isNull;
+
+/**
+ * One request pacer per API key, since NextDNS limits requests per key.
+ * Time of the last request and the learned limit are kept in CACHE_DIR, so a run started right after
+ * another one does not spend the window the previous run already used.
+ */
+@Component
+public class NextDnsRateLimiters {
+
+    /**
+     * NextDNS resets its limit 60 seconds after the last request
+     */
+    private static final Duration WINDOW = Duration.ofSeconds(60);
+    private static final int MIN_LIMIT = 5;
+
+    private final int documentedLimit = EnvParser.parseInt(NEXTDNS_RATE_LIMIT, 60);
+    private final Map<String, TokenBucketLimiter> limiters = new ConcurrentHashMap<>();
+    private final @Nullable Path directory;
+
+    public NextDnsRateLimiters() {
+        String cacheDir = EnvironmentVariables.CACHE_DIR;
+        this.directory = isNull(cacheDir) || cacheDir.isBlank() ? null : Path.of(cacheDir.strip(), "state");
+    }
+
+    public TokenBucketLimiter forKey(String authSecret) {
+        return limiters.computeIfAbsent(keyId(authSecret), this::load);
+    }
+
+    /**
+     * Records the state of every pacer for the next run
+     */
+    public void save() {
+        if (directory == null) {
+            return;
+        }
+        limiters.forEach((keyId, limiter) -> {
+            Path file = directory.resolve("ratelimit-" + keyId);
+            try {
+                Files.createDirectories(directory);
+                Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+                try {
+                    Files.writeString(tmp, "%s %s".formatted(limiter.lastRequestAt().toEpochMilli(), Math.round(limiter.limit())));
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException e) {
+                Log.fail("Failed to record NextDNS rate limit state: " + e.getMessage());
+            }
+        });
+    }
+
+    private TokenBucketLimiter load(String keyId) {
+        String name = "NextDNS key " + keyId.substring(0, 6);
+        Instant lastRequestAt = Instant.EPOCH;
+        double limit = documentedLimit;
+        Path file = directory == null ? null : directory.resolve("ratelimit-" + keyId);
+        if (file != null && Files.isRegularFile(file)) {
+            try {
+                String[] state = Files.readString(file).strip().split(" ");
+                lastRequestAt = Instant.ofEpochMilli(Long.parseLong(state[0]));
+                // A limit learned from 429s is kept, growing back from it is cheaper than hitting it again
+                limit = Math.clamp(Long.parseLong(state[1]), MIN_LIMIT, documentedLimit);
+            } catch (IOException | RuntimeException e) {
+                Log.fail("Ignoring broken NextDNS rate limit state %s: %s".formatted(file, e.getMessage()));
+            }
+        }
+        return new TokenBucketLimiter(name, WINDOW, limit, documentedLimit, MIN_LIMIT, lastRequestAt);
+    }
+
+    /**
+     * API key is not written anywhere, only its hash
+     */
+    @SneakyThrows
+    static String keyId(String authSecret) {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(authSecret.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(hash, 0, 8);
+    }
+
+}
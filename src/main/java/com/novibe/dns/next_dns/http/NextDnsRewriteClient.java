@@ -23,6 +23,13 @@ public class NextDnsRewriteClient extends AbstractNextDnsHttpClient {
         return post(path(), rewriteDto, SingleRewriteResponse.class);
     }
 
+    /**
+     * Replaces all rewrites with the entries in one request
+     */
+    public @Nullable MultiRewriteResponse replaceRewrites(List<CreateRewriteDto> rewrites) {
+        return put(path(), rewrites, MultiRewriteResponse.class);
+    }
+
     public @Nullable SingleRewriteResponse deleteRewriteById(String id) {
         return delete(path() + "/" + id, SingleRewriteResponse.class);
     }
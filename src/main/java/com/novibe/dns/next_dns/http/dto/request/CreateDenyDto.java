@@ -6,10 +6,15 @@ import lombok.Getter;
 public final class CreateDenyDto {
 
     private final String id;
-    private final boolean active = true;
+    private final boolean active;
 
     public CreateDenyDto(String id) {
+        this(id, true);
+    }
+
+    public CreateDenyDto(String id, boolean active) {
         this.id = id;
+        this.active = active;
     }
 
 }
@@ -1,58 +1,201 @@
 package com.novibe.dns.next_dns.service;
 
 import com.novibe.common.config.EnvironmentVariables;
+import com.novibe.common.domains.DomainSet;
+import com.novibe.common.domains.OperationJournal;
+import com.novibe.common.domains.SnapshotStore;
+import com.novibe.common.util.EnvParser;
 import com.novibe.common.util.Log;
 import com.novibe.dns.next_dns.http.NextDnsDenyClient;
 import com.novibe.dns.next_dns.http.NextDnsRateLimitedApiProcessor;
 import com.novibe.dns.next_dns.http.dto.request.CreateDenyDto;
 import com.novibe.dns.next_dns.http.dto.response.deny.DenyDto;
+import com.novibe.dns.next_dns.http.dto.response.deny.SingleDenyResponse;
+import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static com.novibe.common.config.EnvironmentVariables.SNAPSHOT_MAX_AGE;
+
 @Service
+@RequiredArgsConstructor
 public class NextDnsDenyService {
 
-    public List<String> dropExistingDenys(NextDnsDenyClient client, List<String> newDenyList) {
-        Log.io("Fetching existing denylist from NextDNS");
-        List<DenyDto> existingDenyList = client.fetchDenylist();
-        
+    /**
+     * Above this many requests per entry, the denylist is replaced with one request instead
+     */
+    private static final int BULK_THRESHOLD = 2;
+
+    private final SnapshotStore snapshotStore;
+    private final OperationJournal operationJournal;
+    private final Duration snapshotMaxAge = Duration.ofHours(EnvParser.parseInt(SNAPSHOT_MAX_AGE, 24));
+
+    /**
+     * @param fromSnapshot true if the entries were not read from NextDNS in this run
+     */
+    private record Existing(List<DenyDto> entries, boolean fromSnapshot) {
+    }
+
+    /**
+     * Adds domains missing in the denylist, with FORCE_REWRITE removes all existing entries first.
+     * When that takes more than a couple of requests, the denylist is replaced with one request holding
+     * the kept entries and the new ones, and only if NextDNS rejects it every entry is sent on its own.
+     * Requests per entry go through a journal, so a run interrupted half way is resumed by the next run with the same plan.
+     * The snapshot of the denylist is dropped before the writes and written again only when every request succeeded.
+     *
+     * @param plan fingerprint of the desired state of the profile
+     * @return false if some requests failed, the denylist is then completed by the next run
+     */
+    public boolean syncDenyList(NextDnsDenyClient client, DomainSet newDenyList, String plan) {
         // Check if FORCE_REWRITE is enabled
         boolean forceRewrite = "true".equalsIgnoreCase(EnvironmentVariables.FORCE_REWRITE);
-        
-        if (forceRewrite) {
-            // Remove all existing denys
-            List<String> allIds = existingDenyList.stream().map(DenyDto::getId).toList();
-            if (!allIds.isEmpty()) {
-                Log.io("FORCE_REWRITE enabled: Removing ALL %s existing denys from NextDNS".formatted(allIds.size()));
-                NextDnsRateLimitedApiProcessor.callApi(allIds, client::deleteDenyById);
+        // Removing all entries needs every entry, including those added by hand since the snapshot
+        Existing existing = forceRewrite ? new Existing(fetchDenylist(client), false) : readExisting(client);
+        List<String> filteredBlocklist = forceRewrite ? List.copyOf(newDenyList) : dropExisting(existing.entries(), newDenyList);
+        // Until the writes are done, the remote denylist is known only by fetching it
+        snapshotStore.invalidate(snapshotTarget(client));
+
+        boolean bulk = filteredBlocklist.size() + (forceRewrite ? existing.entries().size() : 0) > BULK_THRESHOLD;
+        if (bulk && existing.fromSnapshot()) {
+            // Replacing drops every entry not sent, so entries added by hand since the snapshot must be read
+            existing = new Existing(fetchDenylist(client), false);
+            filteredBlocklist = dropExisting(existing.entries(), newDenyList);
+        }
+        Log.common("Prepared %s domains to block".formatted(filteredBlocklist.size()));
+
+        // Deletes planned with FORCE_REWRITE only make sense together with its adds
+        String journalPlan = forceRewrite ? plan + " force" : plan;
+        try (OperationJournal.Journal journal = operationJournal.open(snapshotTarget(client), journalPlan)) {
+            if (bulk) {
+                Map<String, Boolean> state = new LinkedHashMap<>();
+                if (!forceRewrite) {
+                    existing.entries().forEach(deny -> state.put(deny.getId(), deny.isActive()));
+                }
+                filteredBlocklist.forEach(domain -> state.put(domain, true));
+                if (replaceDenyList(client, state)) {
+                    journal.finish();
+                    updateSnapshot(client, true, state);
+                    return true;
+                }
+            }
+
+            Map<String, Boolean> state = new LinkedHashMap<>();
+            boolean complete = true;
+            if (forceRewrite) {
+                // Remove all existing denys, a resumed run removes only those the interrupted run did not,
+                // and keeps those it has already added again
+                Set<String> readded = journal.completed("add").keySet();
+                List<String> allIds = journal.pending("delete", existing.entries().stream()
+                        .map(DenyDto::getId)
+                        .filter(id -> !readded.contains(id))
+                        .toList());
+                if (!allIds.isEmpty()) {
+                    Log.io("FORCE_REWRITE enabled: Removing ALL %s existing denys from NextDNS".formatted(allIds.size()));
+                    complete = NextDnsRateLimitedApiProcessor.callApi(client.profileId(), allIds, client::deleteDenyById,
+                            id -> journal.done("delete", id)).size() == allIds.size();
+                }
+            } else {
+                existing.entries().forEach(deny -> state.put(deny.getId(), deny.isActive()));
+            }
+            List<String> toSave = journal.pending("add", filteredBlocklist);
+            List<SingleDenyResponse> saved = saveDenyList(client, toSave, journal);
+            complete &= saved.size() == toSave.size();
+            if (complete) {
+                journal.finish();
             }
-            return newDenyList;
+            // Only entries NextDNS confirmed, in this run or the interrupted one
+            journal.completed("add").keySet().forEach(domain -> state.put(domain, true));
+            updateSnapshot(client, complete, state);
+            return complete;
         }
-        
-        // Normal mode: only add new domains
+    }
+
+    /**
+     * Normal mode: only domains not active in the denylist yet
+     */
+    private static List<String> dropExisting(List<DenyDto> existingDenyList, DomainSet newDenyList) {
         Set<String> existingDomainsSet = existingDenyList.stream()
                 .filter(DenyDto::isActive)
                 .map(DenyDto::getId)
                 .collect(Collectors.toSet());
-        newDenyList.removeIf(existingDomainsSet::contains);
-        return newDenyList;
+        return newDenyList.stream()
+                .filter(domain -> !existingDomainsSet.contains(domain))
+                .toList();
     }
 
-    public void saveDenyList(NextDnsDenyClient client, List<String> newDenylist) {
+    /**
+     * Denylist of the profile, taken from the snapshot of the last successful run while it is younger than SNAPSHOT_MAX_AGE
+     */
+    private Existing readExisting(NextDnsDenyClient client) {
+        Optional<SnapshotStore.Snapshot<DenyDto>> snapshot = snapshotStore
+                .read(snapshotTarget(client), in -> new DenyDto(in.readUTF(), in.readBoolean()))
+                .filter(read -> !read.isOlderThan(snapshotMaxAge));
+        if (snapshot.isPresent()) {
+            Log.io("Using denylist snapshot of %s entries".formatted(snapshot.get().entries().size()));
+            return new Existing(snapshot.get().entries(), true);
+        }
+        return new Existing(fetchDenylist(client), false);
+    }
+
+    private static List<DenyDto> fetchDenylist(NextDnsDenyClient client) {
+        Log.io("Fetching existing denylist from NextDNS");
+        return client.fetchDenylist();
+    }
+
+    /**
+     * @param state domain to whether its entry is active
+     * @return false if NextDNS rejected the request
+     */
+    private static boolean replaceDenyList(NextDnsDenyClient client, Map<String, Boolean> state) {
+        List<CreateDenyDto> denys = state.entrySet().stream()
+                .map(deny -> new CreateDenyDto(deny.getKey(), deny.getValue()))
+                .toList();
+        Log.io("Replacing denylist with %s entries in one request...".formatted(denys.size()));
+        return NextDnsRateLimitedApiProcessor.callBulk(client.profileId(), () -> client.replaceDenylist(denys));
+    }
+
+    public List<SingleDenyResponse> saveDenyList(NextDnsDenyClient client, List<String> newDenylist, OperationJournal.Journal journal) {
         List<CreateDenyDto> createRequests = newDenylist.stream().map(CreateDenyDto::new).toList();
         Log.io("Saving new denylist to NextDNS...");
-        NextDnsRateLimitedApiProcessor.callApi(createRequests, client::saveDeny);
+        return NextDnsRateLimitedApiProcessor.callApi(client.profileId(), createRequests, client::saveDeny,
+                deny -> journal.done("add", deny.getId()));
     }
 
-    public void removeAll(NextDnsDenyClient client) {
-        Log.io("Fetching existing denylist from NextDNS");
-        List<DenyDto> existing = client.fetchDenylist();
-        List<String> ids = existing.stream().map(DenyDto::getId).toList();
+    /**
+     * @return false if some entries were not removed
+     */
+    public boolean removeAll(NextDnsDenyClient client) {
+        snapshotStore.invalidate(snapshotTarget(client));
         Log.io("Removing denylist from NextDNS");
-        NextDnsRateLimitedApiProcessor.callApi(ids, client::deleteDenyById);
+        if (replaceDenyList(client, Map.of())) {
+            updateSnapshot(client, true, Map.of());
+            return true;
+        }
+        List<String> ids = fetchDenylist(client).stream().map(DenyDto::getId).toList();
+        boolean complete = NextDnsRateLimitedApiProcessor.callApi(client.profileId(), ids, client::deleteDenyById).size() == ids.size();
+        updateSnapshot(client, complete, Map.of());
+        return complete;
+    }
+
+    private void updateSnapshot(NextDnsDenyClient client, boolean complete, Map<String, Boolean> state) {
+        if (!complete) {
+            return;
+        }
+        snapshotStore.write(snapshotTarget(client), state.entrySet(), (out, deny) -> {
+            out.writeUTF(deny.getKey());
+            out.writeBoolean(deny.getValue());
+        });
+    }
+
+    private static String snapshotTarget(NextDnsDenyClient client) {
+        return "nextdns-deny|" + client.profileId();
     }
 
 }
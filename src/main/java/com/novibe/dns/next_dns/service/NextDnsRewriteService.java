@@ -1,34 +1,131 @@
 package com.novibe.dns.next_dns.service;
 
 import com.novibe.common.data_sources.HostsOverrideListsLoader;
+import com.novibe.common.domains.OperationJournal;
+import com.novibe.common.domains.SnapshotStore;
+import com.novibe.common.util.EnvParser;
 import com.novibe.common.util.Log;
 import com.novibe.dns.next_dns.http.NextDnsRateLimitedApiProcessor;
 import com.novibe.dns.next_dns.http.NextDnsRewriteClient;
 import com.novibe.dns.next_dns.http.dto.request.CreateRewriteDto;
 import com.novibe.dns.next_dns.http.dto.response.rewrite.RewriteDto;
+import com.novibe.dns.next_dns.http.dto.response.rewrite.SingleRewriteResponse;
+import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
+import static com.novibe.common.config.EnvironmentVariables.SNAPSHOT_MAX_AGE;
 import static java.util.Objects.nonNull;
 
 @Service
+@RequiredArgsConstructor
 public class NextDnsRewriteService {
 
+    /**
+     * Above this many requests per entry, the rewrites are replaced with one request instead
+     */
+    private static final int BULK_THRESHOLD = 2;
+
+    private final SnapshotStore snapshotStore;
+    private final OperationJournal operationJournal;
+    private final Duration snapshotMaxAge = Duration.ofHours(EnvParser.parseInt(SNAPSHOT_MAX_AGE, 24));
+
+    /**
+     * @param fromSnapshot true if the rewrites were not read from NextDNS in this run
+     */
+    private record Existing(List<RewriteDto> rewrites, boolean fromSnapshot) {
+    }
+
     public Map<String, CreateRewriteDto> buildNewRewrites(List<HostsOverrideListsLoader.BypassRoute> overrides) {
         Map<String, CreateRewriteDto> rewriteDtos = new HashMap<>();
         overrides.forEach(route -> rewriteDtos.putIfAbsent(route.website(), new CreateRewriteDto(route.website(), route.ip())));
         return rewriteDtos;
     }
 
-    public List<CreateRewriteDto> cleanupOutdated(NextDnsRewriteClient client, Map<String, CreateRewriteDto> newRewriteRequests) {
-        List<RewriteDto> existingRewrites = getExistingRewrites(client);
+    /**
+     * Replaces rewrites pointing to another IP and adds missing ones.
+     * When that takes more than a couple of requests, all rewrites are replaced with one request holding
+     * the kept rewrites and the new ones, and only if NextDNS rejects it every rewrite is sent on its own.
+     * The snapshot of rewrites is dropped before the writes and written again only when every request
+     * per entry succeeded, the ids given by a replace are not known until the next fetch.
+     * Requests per entry go through a journal, so a run interrupted half way is resumed by the next run with the same plan.
+     *
+     * @param plan fingerprint of the desired state of the profile
+     * @return false if some requests failed, the rewrites are then completed by the next run
+     */
+    public boolean syncRewrites(NextDnsRewriteClient client, List<HostsOverrideListsLoader.BypassRoute> overrides, String plan) {
+        Map<String, CreateRewriteDto> requests = buildNewRewrites(overrides);
+        Existing existing = readExisting(client);
+        List<String> outdatedIds = findOutdated(existing.rewrites(), requests);
+        // Until the writes are done, the remote rewrites are known only by fetching them
+        snapshotStore.invalidate(snapshotTarget(client));
 
-        List<String> outdatedIds = new ArrayList<>();
+        boolean bulk = outdatedIds.size() + requests.size() > BULK_THRESHOLD;
+        if (bulk && existing.fromSnapshot()) {
+            // Replacing drops every rewrite not sent, so rewrites added by hand since the snapshot must be read
+            existing = new Existing(fetchRewrites(client), false);
+            requests = buildNewRewrites(overrides);
+            outdatedIds = findOutdated(existing.rewrites(), requests);
+        }
+        Log.common("Prepared %s domains to rewrite".formatted(requests.size()));
+
+        try (OperationJournal.Journal journal = operationJournal.open(snapshotTarget(client), plan)) {
+            if (bulk) {
+                Set<String> outdated = new HashSet<>(outdatedIds);
+                List<CreateRewriteDto> rewrites = new ArrayList<>();
+                existing.rewrites().stream()
+                        .filter(rewrite -> !outdated.contains(rewrite.id()))
+                        .forEach(rewrite -> rewrites.add(new CreateRewriteDto(rewrite.name(), rewrite.content())));
+                rewrites.addAll(requests.values());
+                if (replaceRewrites(client, rewrites)) {
+                    journal.finish();
+                    return true;
+                }
+            }
+
+            List<RewriteDto> state = new ArrayList<>(existing.rewrites());
+            boolean complete = true;
+            List<String> toRemove = journal.pending("delete", outdatedIds);
+            if (!toRemove.isEmpty()) {
+                Log.io("Removing %s outdated rewrites from NextDNS".formatted(toRemove.size()));
+                complete = NextDnsRateLimitedApiProcessor.callApi(client.profileId(), toRemove, client::deleteRewriteById,
+                        id -> journal.done("delete", id)).size() == toRemove.size();
+                Set<String> removed = journal.completed("delete").keySet();
+                state.removeIf(rewrite -> removed.contains(rewrite.id()));
+            }
 
+            List<CreateRewriteDto> toSave = journal.pending("add", requests.keySet()).stream().map(requests::get).toList();
+            List<SingleRewriteResponse> saved = saveRewrites(client, toSave, journal);
+            complete &= saved.size() == toSave.size();
+            for (SingleRewriteResponse response : saved) {
+                if (response == null || response.getData() == null) {
+                    complete = false;
+                } else {
+                    state.add(response.getData());
+                }
+            }
+            if (complete) {
+                journal.finish();
+            }
+            updateSnapshot(client, complete, state);
+            return complete;
+        }
+    }
+
+    /**
+     * @param newRewriteRequests left with the requests for domains that have no rewrite yet or have an outdated one
+     * @return ids of rewrites pointing to another IP than requested
+     */
+    private static List<String> findOutdated(List<RewriteDto> existingRewrites, Map<String, CreateRewriteDto> newRewriteRequests) {
+        List<String> outdatedIds = new ArrayList<>();
         for (RewriteDto existingRewrite : existingRewrites) {
             String domain = existingRewrite.name();
             String oldIp = existingRewrite.content();
@@ -39,29 +136,73 @@ public class NextDnsRewriteService {
                 newRewriteRequests.remove(domain);
             }
         }
-        if (!outdatedIds.isEmpty()) {
-            Log.io("Removing %s outdated rewrites from NextDNS".formatted(outdatedIds.size()));
-            NextDnsRateLimitedApiProcessor.callApi(outdatedIds, client::deleteRewriteById);
+        return outdatedIds;
+    }
+
+    /**
+     * Rewrites of the profile, taken from the snapshot of the last successful run while it is younger than SNAPSHOT_MAX_AGE
+     */
+    private Existing readExisting(NextDnsRewriteClient client) {
+        Optional<SnapshotStore.Snapshot<RewriteDto>> snapshot = snapshotStore
+                .read(snapshotTarget(client), in -> new RewriteDto(in.readUTF(), in.readUTF(), in.readUTF()))
+                .filter(read -> !read.isOlderThan(snapshotMaxAge));
+        if (snapshot.isPresent()) {
+            Log.io("Using rewrites snapshot of %s entries".formatted(snapshot.get().entries().size()));
+            return new Existing(snapshot.get().entries(), true);
         }
-        return List.copyOf(newRewriteRequests.values());
+        return new Existing(fetchRewrites(client), false);
     }
 
-    public List<RewriteDto> getExistingRewrites(NextDnsRewriteClient client) {
+    private static List<RewriteDto> fetchRewrites(NextDnsRewriteClient client) {
         Log.io("Fetching existing rewrites from NextDNS");
         return client.fetchRewrites();
     }
 
-    public void saveRewrites(NextDnsRewriteClient client, List<CreateRewriteDto> createRewriteDtos) {
+    /**
+     * @return false if NextDNS rejected the request
+     */
+    private static boolean replaceRewrites(NextDnsRewriteClient client, List<CreateRewriteDto> rewrites) {
+        Log.io("Replacing rewrites with %s entries in one request...".formatted(rewrites.size()));
+        return NextDnsRateLimitedApiProcessor.callBulk(client.profileId(), () -> client.replaceRewrites(rewrites));
+    }
+
+    public List<SingleRewriteResponse> saveRewrites(NextDnsRewriteClient client,
+                                                    List<CreateRewriteDto> createRewriteDtos,
+                                                    OperationJournal.Journal journal) {
         Log.io("Saving %s new rewrites to NextDNS...".formatted(createRewriteDtos.size()));
-        NextDnsRateLimitedApiProcessor.callApi(createRewriteDtos, client::saveRewrite);
+        return NextDnsRateLimitedApiProcessor.callApi(client.profileId(), createRewriteDtos, client::saveRewrite,
+                rewrite -> journal.done("add", rewrite.getName()));
     }
 
-    public void removeAll(NextDnsRewriteClient client) {
-        Log.io("Fetching existing rewrites from NextDNS");
-        List<RewriteDto> list = client.fetchRewrites();
-        List<String> ids = list.stream().map(RewriteDto::id).toList();
+    /**
+     * @return false if some rewrites were not removed
+     */
+    public boolean removeAll(NextDnsRewriteClient client) {
+        snapshotStore.invalidate(snapshotTarget(client));
         Log.io("Removing rewrites from NextDNS");
-        NextDnsRateLimitedApiProcessor.callApi(ids, client::deleteRewriteById);
+        if (replaceRewrites(client, List.of())) {
+            updateSnapshot(client, true, List.of());
+            return true;
+        }
+        List<String> ids = fetchRewrites(client).stream().map(RewriteDto::id).toList();
+        boolean complete = NextDnsRateLimitedApiProcessor.callApi(client.profileId(), ids, client::deleteRewriteById).size() == ids.size();
+        updateSnapshot(client, complete, List.of());
+        return complete;
+    }
+
+    private void updateSnapshot(NextDnsRewriteClient client, boolean complete, List<RewriteDto> state) {
+        if (!complete) {
+            return;
+        }
+        snapshotStore.write(snapshotTarget(client), state, (out, rewrite) -> {
+            out.writeUTF(rewrite.id());
+            out.writeUTF(rewrite.name());
+            out.writeUTF(rewrite.content());
+        });
+    }
+
+    private static String snapshotTarget(NextDnsRewriteClient client) {
+        return "nextdns-rewrites|" + client.profileId();
     }
 
 }
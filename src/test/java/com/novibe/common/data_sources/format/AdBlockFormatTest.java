@@ -0,0 +1,48 @@
+package com.novibe.common.data_sources.format;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.novibe.common.data_sources.format.RecordingSink.scan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdBlockFormatTest {
+
+    private final AdBlockFormat format = new AdBlockFormat();
+
+    @Test
+    void blocksDomainRules() {
+        assertEquals(List.of("block ads.example.com"), scan(format, "||Ads.Example.com^"));
+        assertEquals(List.of("block ads.example.com"), scan(format, "||ads.example.com^|"));
+        assertEquals(List.of("block ads.example.com"), scan(format, "||ads.example.com^$important"));
+    }
+
+    @Test
+    void allowsExceptions() {
+        assertEquals(List.of("allow cdn.example.com"), scan(format, "@@||cdn.example.com^"));
+    }
+
+    @Test
+    void skipsRulesNotExpressibleInDns() {
+        assertEquals(List.of(), scan(format, "||ads.example.com/banner^"));
+        assertEquals(List.of(), scan(format, "||ads.example.com^$third-party"));
+        assertEquals(List.of(), scan(format, "||ads.*.example.com^"));
+        assertEquals(List.of(), scan(format, "||ads.example.com"));
+        assertEquals(List.of(), scan(format, "example.com##.banner"));
+    }
+
+    @Test
+    void recognizesRulesAndHeader() {
+        byte[] rule = "||ads.example.com^".getBytes();
+        byte[] header = "[Adblock Plus 2.0]".getBytes();
+        byte[] hosts = "0.0.0.0 ads.example.com".getBytes();
+
+        assertTrue(format.recognizes(rule, 0, rule.length));
+        assertTrue(format.recognizes(header, 0, header.length));
+        assertFalse(format.recognizes(hosts, 0, hosts.length));
+    }
+
+}
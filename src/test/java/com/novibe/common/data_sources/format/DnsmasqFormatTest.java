@@ -0,0 +1,52 @@
+package com.novibe.common.data_sources.format;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.novibe.common.data_sources.format.RecordingSink.scan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DnsmasqFormatTest {
+
+    private final DnsmasqFormat format = new DnsmasqFormat();
+
+    @Test
+    void blocksAddressesWithoutTargetOrWithBlockingTarget() {
+        assertEquals(List.of("block ads.example.com"), scan(format, "address=/ads.example.com/"));
+        assertEquals(List.of("block ads.example.com"), scan(format, "address=/ads.example.com/#"));
+        assertEquals(List.of("block ads.example.com"), scan(format, "address=/ads.example.com/0.0.0.0"));
+        assertEquals(List.of("block ads.example.com"), scan(format, "local=/ads.example.com/"));
+    }
+
+    @Test
+    void redirectsAddressesWithIpTarget() {
+        assertEquals(List.of("redirect 10.0.0.2 nas.example.com"), scan(format, "address=/nas.example.com/10.0.0.2"));
+    }
+
+    @Test
+    void readsEveryDomainOfTheLine() {
+        assertEquals(List.of("block a.example.com", "block b.example.com"),
+                scan(format, "address=/A.example.com/.b.example.com/"));
+    }
+
+    @Test
+    void skipsServerLinesAndUnknownTargets() {
+        assertEquals(List.of(), scan(format, "server=/example.com/10.0.0.1"));
+        assertEquals(List.of(), scan(format, "address=/ads.example.com/not-an-ip"));
+    }
+
+    @Test
+    void recognizesDirectives() {
+        byte[] address = "address=/ads.example.com/".getBytes();
+        byte[] server = "server=/example.com/10.0.0.1".getBytes();
+        byte[] plain = "ads.example.com".getBytes();
+
+        assertTrue(format.recognizes(address, 0, address.length));
+        assertTrue(format.recognizes(server, 0, server.length));
+        assertFalse(format.recognizes(plain, 0, plain.length));
+    }
+
+}
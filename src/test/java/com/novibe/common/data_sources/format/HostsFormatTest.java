@@ -0,0 +1,49 @@
+package com.novibe.common.data_sources.format;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.novibe.common.data_sources.format.RecordingSink.scan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HostsFormatTest {
+
+    private final HostsFormat format = new HostsFormat();
+
+    @Test
+    void blocksHostsOfBlockingIps() {
+        assertEquals(List.of("block ads.example.com"), scan(format, "0.0.0.0 ads.example.com"));
+        assertEquals(List.of("block ads.example.com"), scan(format, "127.0.0.1\tAds.Example.com"));
+        assertEquals(List.of("block ads.example.com"), scan(format, "::1 ads.example.com"));
+    }
+
+    @Test
+    void redirectsHostsOfOtherIps() {
+        assertEquals(List.of("redirect 10.0.0.2 nas.example.com", "redirect 10.0.0.2 media.example.com"),
+                scan(format, "10.0.0.2 nas.example.com media.example.com # home"));
+        assertEquals(List.of("redirect 2001:db8::1 v6.example.com"), scan(format, "2001:db8::1 v6.example.com"));
+    }
+
+    @Test
+    void skipsReservedHostsAndComments() {
+        assertEquals(List.of(), scan(format, "127.0.0.1 localhost"));
+        assertEquals(List.of(), scan(format, "0.0.0.0 0.0.0.0"));
+        assertEquals(List.of("block ads.example.com"), scan(format, "0.0.0.0 ads.example.com #tracker.example.com"));
+        assertEquals(List.of(), scan(format, "ads.example.com"));
+    }
+
+    @Test
+    void recognizesIpFollowedByHost() {
+        byte[] line = "0.0.0.0 ads.example.com".getBytes();
+        byte[] lonelyIp = "0.0.0.0".getBytes();
+        byte[] plain = "ads.example.com".getBytes();
+
+        assertTrue(format.recognizes(line, 0, line.length));
+        assertFalse(format.recognizes(lonelyIp, 0, lonelyIp.length));
+        assertFalse(format.recognizes(plain, 0, plain.length));
+    }
+
+}
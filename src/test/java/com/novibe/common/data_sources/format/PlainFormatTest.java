@@ -0,0 +1,42 @@
+package com.novibe.common.data_sources.format;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.novibe.common.data_sources.format.RecordingSink.scan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlainFormatTest {
+
+    private final PlainFormat format = new PlainFormat();
+
+    @Test
+    void blocksOneDomainPerLine() {
+        assertEquals(List.of("block ads.example.com"), scan(format, "Ads.Example.COM"));
+        assertEquals(List.of("block ads.example.com"), scan(format, "ads.example.com # tracker"));
+    }
+
+    @Test
+    void reportsWildcardAsSubdomainBlock() {
+        assertEquals(List.of("subdomains example.com"), scan(format, "*.example.com"));
+    }
+
+    @Test
+    void skipsIpsAndLinesOfSeveralTokens() {
+        assertEquals(List.of(), scan(format, "1.2.3.4"));
+        assertEquals(List.of(), scan(format, "0.0.0.0 ads.example.com"));
+    }
+
+    @Test
+    void recognizesOnlyDomainsWithDot() {
+        byte[] domain = "ads.example.com".getBytes();
+        byte[] word = "localhost".getBytes();
+
+        assertTrue(format.recognizes(domain, 0, domain.length));
+        assertFalse(format.recognizes(word, 0, word.length));
+    }
+
+}
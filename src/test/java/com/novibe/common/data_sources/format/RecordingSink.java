@@ -0,0 +1,48 @@
+package com.novibe.common.data_sources.format;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records entries as "block domain", "subdomains domain", "allow domain" or "redirect ip domain"
+ */
+class RecordingSink implements EntrySink {
+
+    final List<String> entries = new ArrayList<>();
+
+    /**
+     * Scans one line the way {@link SourceFormats} passes it to a format
+     */
+    static List<String> scan(SourceFormat format, String line) {
+        RecordingSink sink = new RecordingSink();
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        format.scan(bytes, 0, bytes.length, sink);
+        return sink.entries;
+    }
+
+    @Override
+    public void block(byte[] buffer, int from, int to) {
+        entries.add("block " + text(buffer, from, to));
+    }
+
+    @Override
+    public void blockSubdomains(byte[] buffer, int from, int to) {
+        entries.add("subdomains " + text(buffer, from, to));
+    }
+
+    @Override
+    public void allow(byte[] buffer, int from, int to) {
+        entries.add("allow " + text(buffer, from, to));
+    }
+
+    @Override
+    public void redirect(byte[] buffer, int ipFrom, int ipTo, int domainFrom, int domainTo) {
+        entries.add("redirect " + text(buffer, ipFrom, ipTo) + " " + text(buffer, domainFrom, domainTo));
+    }
+
+    private static String text(byte[] buffer, int from, int to) {
+        return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.novibe.common.data_sources.format;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.novibe.common.data_sources.format.RecordingSink.scan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RpzFormatTest {
+
+    private final RpzFormat format = new RpzFormat();
+
+    @Test
+    void blocksPolicyCnames() {
+        assertEquals(List.of("block ads.example.com"), scan(format, "ads.example.com CNAME ."));
+        assertEquals(List.of("block ads.example.com"), scan(format, "Ads.Example.com 300 IN CNAME *."));
+        assertEquals(List.of("block ads.example.com"), scan(format, "ads.example.com IN CNAME rpz-drop. ; tracker"));
+    }
+
+    @Test
+    void reportsWildcardOwnerAsSubdomainBlock() {
+        assertEquals(List.of("subdomains example.com"), scan(format, "*.example.com CNAME ."));
+    }
+
+    @Test
+    void allowsPassthru() {
+        assertEquals(List.of("allow cdn.example.com"), scan(format, "cdn.example.com CNAME rpz-passthru."));
+    }
+
+    @Test
+    void redirectsAddressRecords() {
+        assertEquals(List.of("redirect 10.0.0.2 nas.example.com"), scan(format, "nas.example.com A 10.0.0.2"));
+        assertEquals(List.of("redirect 2001:db8::1 nas.example.com"), scan(format, "nas.example.com 60 AAAA 2001:db8::1"));
+        assertEquals(List.of("block ads.example.com"), scan(format, "ads.example.com A 0.0.0.0"));
+    }
+
+    @Test
+    void skipsAbsoluteOwners() {
+        assertEquals(List.of(), scan(format, "ads.example.com.rpz.zone. CNAME ."));
+        assertEquals(List.of(), scan(format, "ads.example.com. CNAME ."));
+    }
+
+    @Test
+    void skipsDirectivesAndZoneRecords() {
+        assertEquals(List.of(), scan(format, "$ORIGIN rpz.zone."));
+        assertEquals(List.of(), scan(format, "@ IN SOA localhost. root.localhost. 1 3600 600 86400 60"));
+        assertEquals(List.of(), scan(format, "  3600 ) ; continuation"));
+        assertEquals(List.of(), scan(format, "rpz.zone NS localhost."));
+        assertEquals(List.of(), scan(format, "ads.example.com CNAME other.example.net."));
+    }
+
+    @Test
+    void recognizesRecordsAndDirectives() {
+        byte[] cname = "ads.example.com CNAME .".getBytes();
+        byte[] origin = "$TTL 3600".getBytes();
+        byte[] plain = "ads.example.com".getBytes();
+
+        assertTrue(format.recognizes(cname, 0, cname.length));
+        assertTrue(format.recognizes(origin, 0, origin.length));
+        assertFalse(format.recognizes(plain, 0, plain.length));
+    }
+
+}
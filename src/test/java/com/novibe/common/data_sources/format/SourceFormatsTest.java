@@ -0,0 +1,46 @@
+package com.novibe.common.data_sources.format;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+class SourceFormatsTest {
+
+    private final SourceFormats formats = new SourceFormats(List.of(
+            new HostsFormat(), new AdBlockFormat(), new DnsmasqFormat(), new RpzFormat(), new PlainFormat()));
+
+    @Test
+    void detectsFormatByMostLines() {
+        assertInstanceOf(HostsFormat.class, detect("# hosts\n0.0.0.0 a.example.com\n0.0.0.0 b.example.com\n"));
+        assertInstanceOf(AdBlockFormat.class, detect("[Adblock Plus 2.0]\n! comment\n||a.example.com^\n"));
+        assertInstanceOf(DnsmasqFormat.class, detect("address=/a.example.com/\nlocal=/b.example.com/\n"));
+        assertInstanceOf(RpzFormat.class, detect("$TTL 300\na.example.com CNAME .\n; comment\nb.example.com CNAME .\n"));
+        assertInstanceOf(PlainFormat.class, detect("a.example.com\nb.example.com\n"));
+    }
+
+    /**
+     * Comments are skipped, the BOM is dropped and the last line may have no line break
+     */
+    @Test
+    void scansWholeStream() throws IOException {
+        byte[] source = "\uFEFF# comment\n0.0.0.0 a.example.com\r\n\n0.0.0.0 b.example.com".getBytes(StandardCharsets.UTF_8);
+        RecordingSink sink = new RecordingSink();
+
+        SourceFormat format = formats.scan(new ByteArrayInputStream(source), sink);
+
+        assertInstanceOf(HostsFormat.class, format);
+        assertEquals(List.of("block a.example.com", "block b.example.com"), sink.entries);
+    }
+
+    private SourceFormat detect(String sample) {
+        byte[] bytes = sample.getBytes(StandardCharsets.UTF_8);
+        return formats.detect(bytes, 0, bytes.length);
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.novibe.common.domains;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DomainSetTest {
+
+    /**
+     * Domains of this length fill a 1 MB slab with about 20 entries
+     */
+    private static final int LONG_DOMAIN_LENGTH = 50_000;
+
+    @Test
+    void addsAndFindsDomains() {
+        DomainSet set = new DomainSet();
+
+        assertTrue(set.add("example.com"));
+        assertTrue(set.add("ads.example.com"));
+        assertFalse(set.add("example.com"));
+
+        assertEquals(2, set.size());
+        assertTrue(set.contains("example.com"));
+        assertTrue(set.contains("ads.example.com"));
+        assertFalse(set.contains("example.org"));
+        assertFalse(set.contains("example.co"));
+        assertFalse(set.contains(42));
+    }
+
+    @Test
+    void addsAndFindsByteRanges() {
+        DomainSet set = new DomainSet();
+        byte[] line = "0.0.0.0 tracker.example.net # comment".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(set.add(line, 8, 19));
+        assertFalse(set.add(line, 0, 0));
+
+        assertTrue(set.contains("tracker.example.net"));
+        assertTrue(set.contains(line, 8, 19));
+        assertFalse(set.contains(line, 8, 15));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void growsPastInitialTables() {
+        DomainSet set = new DomainSet();
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(set.add("host" + i + ".example.com"));
+        }
+        for (int i = 0; i < 100_000; i++) {
+            assertFalse(set.add("host" + i + ".example.com"));
+        }
+
+        assertEquals(100_000, set.size());
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(set.contains("host" + i + ".example.com"));
+        }
+        assertFalse(set.contains("host100000.example.com"));
+    }
+
+    @Test
+    void iteratesAcrossSlabAndSegmentBoundaries() {
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            expected.add("site" + i + ".example.org");
+        }
+        // Long domains of one segment take several slabs of it, short ones spread over all segments
+        expected.addAll(longDomainsOfOneSegment(50));
+        DomainSet set = new DomainSet();
+        set.addAll(expected);
+
+        Set<String> iterated = new HashSet<>();
+        set.forEach(iterated::add);
+        assertEquals(expected, iterated);
+        assertEquals(expected.size(), set.size());
+
+        Set<String> visited = new HashSet<>();
+        set.forEachBytes((buffer, offset, length) -> visited.add(new String(buffer, offset, length, StandardCharsets.UTF_8)));
+        assertEquals(expected, visited);
+
+        List<String> chunked = new ArrayList<>();
+        Iterator<List<String>> chunks = set.chunks(999);
+        while (chunks.hasNext()) {
+            List<String> chunk = chunks.next();
+            assertTrue(chunk.size() <= 999);
+            chunked.addAll(chunk);
+        }
+        assertEquals(expected.size(), chunked.size());
+        assertEquals(expected, new HashSet<>(chunked));
+    }
+
+    @Test
+    void mergesAnotherSet() {
+        DomainSet first = new DomainSet();
+        first.add("a.example.com");
+        first.add("b.example.com");
+        DomainSet second = new DomainSet();
+        second.add("b.example.com");
+        second.add("c.example.com");
+
+        assertTrue(first.addAll(second));
+        assertFalse(first.addAll(second));
+
+        assertEquals(Set.of("a.example.com", "b.example.com", "c.example.com"), new HashSet<>(first));
+    }
+
+    @Test
+    void frozenSetIsReadOnly() {
+        DomainSet set = new DomainSet();
+        set.add("example.com");
+
+        assertTrue(set.freeze().contains("example.com"));
+        assertFalse(set.contains("example.org"));
+        assertThrows(IllegalStateException.class, () -> set.add("example.org"));
+        assertThrows(IllegalStateException.class, set::clear);
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void clearsEverySegment() {
+        DomainSet set = new DomainSet();
+        for (int i = 0; i < 1000; i++) {
+            set.add("host" + i + ".example.com");
+        }
+
+        set.clear();
+
+        assertEquals(0, set.size());
+        assertFalse(set.iterator().hasNext());
+        assertTrue(set.add("host1.example.com"));
+        assertEquals(Set.of("host1.example.com"), new HashSet<>(set));
+    }
+
+    /**
+     * Domains whose hash picks the first segment, the segment is chosen by the top bits of the hash
+     */
+    private static List<String> longDomainsOfOneSegment(int count) {
+        String body = "a".repeat(LONG_DOMAIN_LENGTH);
+        List<String> domains = new ArrayList<>();
+        for (int i = 0; domains.size() < count; i++) {
+            String domain = body + i + ".example.com";
+            byte[] bytes = domain.getBytes(StandardCharsets.UTF_8);
+            if (DomainSet.hash(bytes, 0, bytes.length) >>> 58 == 0) {
+                domains.add(domain);
+            }
+        }
+        return domains;
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.novibe.common.util;
+
+import com.novibe.common.exception.NextDnsHttpError;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TaskGraphTest {
+
+    private final TaskGraph graph = new TaskGraph();
+    private final List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void runsChainInOrder() {
+        TaskGraph.Task first = graph.add("first", record("first"));
+        TaskGraph.Task second = graph.add("second", record("second")).after(first);
+        graph.add("third", record("third")).after(second);
+
+        assertTrue(graph.run("chain", 4).succeeded());
+        assertEquals(List.of("first", "second", "third"), order);
+    }
+
+    @Test
+    void runsDiamondInOrder() {
+        TaskGraph.Task top = graph.add("top", record("top"));
+        TaskGraph.Task left = graph.add("left", record("left")).requires(top);
+        TaskGraph.Task right = graph.add("right", record("right")).requires(top);
+        graph.add("bottom", record("bottom")).requires(left, right);
+
+        assertTrue(graph.run("diamond", 4).succeeded());
+        assertEquals(4, order.size());
+        assertEquals("top", order.getFirst());
+        assertEquals("bottom", order.getLast());
+    }
+
+    /**
+     * A client error is not retried; tasks requiring the failed one are skipped, tasks ordered after it still run
+     */
+    @Test
+    void skipsOnlyRequiringTasks() {
+        AtomicInteger attempts = new AtomicInteger();
+        TaskGraph.Task broken = graph.add("broken", () -> {
+            attempts.incrementAndGet();
+            throw new NextDnsHttpError(400, "Bad Request");
+        });
+        TaskGraph.Task required = graph.add("required", record("required")).requires(broken);
+        graph.add("transitive", record("transitive")).requires(required);
+        graph.add("after", record("after")).after(broken);
+
+        TaskGraph.Result result = graph.run("failure", 4);
+
+        assertEquals(1, attempts.get());
+        assertEquals(List.of("broken"), result.failed());
+        assertEquals(List.of("required", "transitive"), result.skipped());
+        assertEquals(List.of("after"), order);
+    }
+
+    @Test
+    void doesNotRetryNonIdempotentTaskAfterServerError() {
+        AtomicInteger serverError = new AtomicInteger();
+        graph.add("server error", failing(serverError, 1, new NextDnsHttpError(500, "Internal Server Error"))).nonIdempotent();
+        AtomicInteger brokenConnection = new AtomicInteger();
+        graph.add("broken connection", failing(brokenConnection, 1, new UncheckedIOException(new IOException("reset")))).nonIdempotent();
+
+        TaskGraph.Result result = graph.run("non-idempotent", 4);
+
+        assertEquals(1, serverError.get());
+        assertEquals(1, brokenConnection.get());
+        assertEquals(2, result.failed().size());
+    }
+
+    @Test
+    void retriesNonIdempotentTaskAfterRateLimit() {
+        AtomicInteger attempts = new AtomicInteger();
+        graph.add("limited", failing(attempts, 1, new NextDnsHttpError(429, "Too Many Requests"))).nonIdempotent();
+
+        assertTrue(graph.run("rate limit", 4).succeeded());
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void retriesIdempotentTaskAfterServerError() {
+        AtomicInteger attempts = new AtomicInteger();
+        graph.add("flaky", failing(attempts, 1, new NextDnsHttpError(500, "Internal Server Error")));
+
+        assertTrue(graph.run("server error", 4).succeeded());
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void rejectsDependencyCycle() {
+        TaskGraph.Task first = graph.add("first", record("first"));
+        TaskGraph.Task second = graph.add("second", record("second")).after(first);
+        first.after(second);
+
+        assertThrows(IllegalStateException.class, () -> graph.run("cycle", 4));
+        assertEquals(List.of(), order);
+    }
+
+    private Runnable record(String name) {
+        return () -> order.add(name);
+    }
+
+    /**
+     * Fails with the exception on the given count of first attempts, then succeeds
+     */
+    private static Runnable failing(AtomicInteger attempts, int failures, RuntimeException exception) {
+        return () -> {
+            if (attempts.incrementAndGet() <= failures) {
+                throw exception;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.novibe.dns.cloudflare.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ListShardingTest {
+
+    private final ListSharding sharding = new ListSharding();
+
+    @Test
+    void putsEveryDomainInExactlyOneList() {
+        List<String> domains = domains(0, 5000);
+
+        List<List<String>> lists = sharding.shard(domains, 0);
+
+        assertEquals(6, lists.size());
+        Map<String, Integer> assignment = assignment(lists);
+        assertEquals(domains.size(), assignment.size());
+        assertTrue(assignment.keySet().containsAll(domains));
+        lists.forEach(list -> assertTrue(list.size() <= sharding.listSize()));
+    }
+
+    @Test
+    void keepsShardCountUnlessTooSmallOrTooBig() {
+        assertEquals(6, sharding.shard(domains(0, 5000), 0).size());
+        assertEquals(9, sharding.shard(domains(0, 5000), 9).size());
+        assertEquals(6, sharding.shard(domains(0, 5000), 13).size());
+        assertEquals(6, sharding.shard(domains(0, 5000), 5).size());
+        assertEquals(List.of(), sharding.shard(List.of(), 3));
+    }
+
+    @Test
+    void addingOrRemovingDomainsKeepsOtherAssignments() {
+        List<String> domains = domains(0, 5000);
+        Map<String, Integer> before = assignment(sharding.shard(domains, 6));
+
+        List<String> grown = new ArrayList<>(domains);
+        grown.addAll(domains(5000, 5100));
+        Map<String, Integer> afterAdding = assignment(sharding.shard(grown, 6));
+        domains.forEach(domain -> assertEquals(before.get(domain), afterAdding.get(domain), domain));
+
+        List<String> shrunk = domains.subList(100, domains.size());
+        Map<String, Integer> afterRemoving = assignment(sharding.shard(shrunk, 6));
+        shrunk.forEach(domain -> assertEquals(before.get(domain), afterRemoving.get(domain), domain));
+    }
+
+    @Test
+    void addedListTakesDomainsOnlyFromOthers() {
+        List<String> domains = domains(0, 5000);
+        Map<String, Integer> before = assignment(sharding.shard(domains, 6));
+        Map<String, Integer> after = assignment(sharding.shard(domains, 7));
+
+        int moved = 0;
+        for (String domain : domains) {
+            if (!before.get(domain).equals(after.get(domain))) {
+                assertEquals(6, after.get(domain), domain);
+                moved++;
+            }
+        }
+        assertTrue(moved > 0 && moved < domains.size() / 4, "moved " + moved);
+    }
+
+    @Test
+    void jumpHashStaysInRange() {
+        for (long key = -1000; key < 1000; key++) {
+            for (int buckets = 1; buckets < 20; buckets++) {
+                int bucket = ListSharding.jumpHash(key * 0x9E3779B97F4A7C15L, buckets);
+                assertTrue(bucket >= 0 && bucket < buckets);
+            }
+        }
+    }
+
+    private static List<String> domains(int from, int to) {
+        List<String> domains = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            domains.add("host" + i + ".example.com");
+        }
+        return domains;
+    }
+
+    private static Map<String, Integer> assignment(List<List<String>> lists) {
+        Map<String, Integer> assignment = new HashMap<>();
+        for (int i = 0; i < lists.size(); i++) {
+            for (String domain : lists.get(i)) {
+                assertNull(assignment.put(domain, i), domain);
+            }
+        }
+        return assignment;
+    }
+
+}